@@ -0,0 +1,356 @@
+package com.expense;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs ExpenseStore calls off the caller's thread and returns
+ * CompletableFutures.
+ *
+ * All writes are serialized on one writer thread. Reads go to a small
+ * pool of threads. Thread-safe stores ({@link DatabaseHandler},
+ * {@link InMemoryExpenseStore}) are shared by every thread, by returning
+ * the same instance from the opener; SQLite reads then run on the
+ * handler's reader connections, each on a consistent WAL snapshot while a
+ * write is in flight. Long bulk writes (CSV imports) run on a thread of
+ * their own against the same store, which locks per batch, so they do not
+ * hold up the writer thread. Futures
+ * complete on the callback executor given to the constructor (e.g.
+ * {@code Platform::runLater} for the JavaFX thread), so callbacks chained
+ * with thenAccept/exceptionally can touch the UI directly.
+ */
+
+public class AsyncDatabaseHandler implements AutoCloseable {
+
+    public static final int DEFAULT_READERS = 2;
+
+    private final Supplier<? extends ExpenseStore> opener;
+    private final Executor callbackExecutor;
+
+    private final ExpenseStore writer;
+    private final ExecutorService writerExecutor;
+    private final ExecutorService bulkExecutor;
+    private final ExecutorService readerExecutor;
+
+    // One reader store per pool thread, opened on first use
+    private final List<ExpenseStore> openReaders = Collections.synchronizedList(new ArrayList<>());
+    private final ThreadLocal<ExpenseStore> reader = new ThreadLocal<>();
+
+    private final AtomicInteger pendingWrites = new AtomicInteger();
+    private final AtomicInteger pendingReads = new AtomicInteger();
+    private final Map<String, OperationStats> stats = new ConcurrentHashMap<>();
+
+    // One DatabaseHandler for every thread, with a reader connection per reader thread
+    public AsyncDatabaseHandler(SqliteProfile profile, int readerCount, Executor callbackExecutor) {
+        this(sharing(new DatabaseHandler(profile, Path.of(DatabaseHandler.DATABASE_FILE), readerCount)),
+                readerCount, callbackExecutor);
+    }
+
+    /**
+     * @param opener Creates the writer's and each reader thread's store;
+     *               stores are connected on the thread that uses them
+     */
+
+    public AsyncDatabaseHandler(Supplier<? extends ExpenseStore> opener, int readerCount, Executor callbackExecutor) {
+        this.opener = opener;
+        this.callbackExecutor = callbackExecutor;
+        this.writer = opener.get();
+        this.writerExecutor = Executors.newSingleThreadExecutor(namedThreads("db-writer"));
+        this.bulkExecutor = Executors.newSingleThreadExecutor(namedThreads("db-bulk"));
+        this.readerExecutor = Executors.newFixedThreadPool(readerCount, namedThreads("db-reader"));
+    }
+
+    /**
+     * Opens the writer's store (for SQLite, running migrations) on the writer thread.
+     * Blocks until done so schema errors surface at startup.
+     */
+
+    public void connect() throws SQLException {
+        try {
+            writerExecutor.submit(() -> {
+                writer.connect();
+                return null;
+            }).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException sqlException)
+                throw sqlException;
+            throw new SQLException("Connect failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while connecting", e);
+        }
+    }
+
+    // ================= GENERIC =================
+
+    /**
+     * Runs a query on a reader thread's store.
+     *
+     * @param operation Name under which latency and counts are recorded
+     */
+
+    public <T> CompletableFuture<T> read(String operation, Function<ExpenseStore, T> query) {
+        return submit(operation, readerExecutor, pendingReads, this::readerHandler, query);
+    }
+
+    /**
+     * Runs an update on the single writer store, after every write
+     * submitted before it.
+     */
+
+    public <T> CompletableFuture<T> write(String operation, Function<ExpenseStore, T> update) {
+        return submit(operation, writerExecutor, pendingWrites, () -> writer, update);
+    }
+
+    /**
+     * Runs a long update on the bulk thread against the writer store, so
+     * writes submitted meanwhile do not wait for it. Bulk updates run one
+     * at a time; the store must be thread-safe and commit in batches.
+     */
+
+    public <T> CompletableFuture<T> bulkWrite(String operation, Function<ExpenseStore, T> update) {
+        return submit(operation, bulkExecutor, pendingWrites, () -> writer, update);
+    }
+
+    // ================= READS =================
+
+    public CompletableFuture<List<Expense>> getAllExpenses(int userId) {
+        return read("getAllExpenses", db -> db.getAllExpenses(userId));
+    }
+
+    public CompletableFuture<List<Expense>> getExpensePage(int userId, ExpenseSort sort, boolean ascending,
+            Expense after, int pageSize) {
+        return read("getExpensePage", db -> db.getExpensePage(userId, sort, ascending, after, pageSize));
+    }
+
+    public CompletableFuture<List<Expense>> getExpensesInRange(int userId, LocalDate from, LocalDate to) {
+        return read("getExpensesInRange", db -> db.getExpensesInRange(userId, from, to));
+    }
+
+    public CompletableFuture<Map<LocalDate, Long>> getDailyTotals(int userId, YearMonth month) {
+        return read("getDailyTotals", db -> db.getDailyTotals(userId, month));
+    }
+
+    public CompletableFuture<List<Expense>> searchExpenses(int userId, String query, int limit) {
+        return read("searchExpenses", db -> db.searchExpenses(userId, query, limit));
+    }
+
+    public CompletableFuture<Expense> getExpenseById(int id, int userId) {
+        return read("getExpenseById", db -> db.getExpenseById(id, userId));
+    }
+
+    // ================= WRITES =================
+
+    /** Completes exceptionally if the store did not save the expense. */
+    public CompletableFuture<Void> saveExpense(Expense e, int userId) {
+        return write("saveExpense", db -> {
+            db.saveExpense(e, userId);
+            // Stores log their own failures and leave the id unset
+            if (e.getId() == null)
+                throw new IllegalStateException("Save expense failed");
+            return null;
+        });
+    }
+
+    public CompletableFuture<Integer> saveExpenses(List<Expense> expenses, int userId) {
+        return write("saveExpenses", db -> db.saveExpenses(expenses, userId));
+    }
+
+    public CompletableFuture<Boolean> updateExpense(Expense e, int userId) {
+        return write("updateExpense", db -> db.updateExpense(e, userId));
+    }
+
+    public CompletableFuture<Boolean> deleteExpense(Expense e, int userId) {
+        return write("deleteExpense", db -> db.deleteExpense(e, userId));
+    }
+
+    public CompletableFuture<Integer> deleteExpenses(Collection<Integer> ids, int userId) {
+        return write("deleteExpenses", db -> db.deleteExpenses(ids, userId));
+    }
+
+    public CompletableFuture<Integer> recategorize(Collection<Integer> ids, String category, int userId) {
+        return write("recategorize", db -> db.recategorize(ids, category, userId));
+    }
+
+    public CompletableFuture<Integer> shiftDates(Collection<Integer> ids, int days, int userId) {
+        return write("shiftDates", db -> db.shiftDates(ids, days, userId));
+    }
+
+    public CompletableFuture<Void> deleteAllExpenses(int userId) {
+        return write("deleteAllExpenses", db -> {
+            db.deleteAllExpenses(userId);
+            if (db instanceof DatabaseHandler sqlite)
+                sqlite.resetAutoIncrement();
+            return null;
+        });
+    }
+
+    // SQLite stores only
+    public CompletableFuture<Void> restoreFrom(Path backup) {
+        return write("restoreFrom", db -> {
+            if (!(db instanceof DatabaseHandler sqlite))
+                throw new UnsupportedOperationException("Restore needs a SQLite store");
+            try {
+                sqlite.restoreFrom(backup);
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+            return null;
+        });
+    }
+
+    // ================= DIAGNOSTICS =================
+
+    public int getPendingWrites() {
+        return pendingWrites.get();
+    }
+
+    public int getPendingReads() {
+        return pendingReads.get();
+    }
+
+    public Map<String, OperationStats> getStats() {
+        return Collections.unmodifiableMap(stats);
+    }
+
+    /**
+     * Stops accepting work, lets queued operations finish, then closes every
+     * store.
+     */
+
+    @Override
+    public void close() {
+        writerExecutor.shutdown();
+        bulkExecutor.shutdown();
+        readerExecutor.shutdown();
+        try {
+            writerExecutor.awaitTermination(30, TimeUnit.SECONDS);
+            bulkExecutor.awaitTermination(30, TimeUnit.SECONDS);
+            readerExecutor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        writer.close();
+        synchronized (openReaders) {
+            openReaders.forEach(ExpenseStore::close);
+            openReaders.clear();
+        }
+
+        stats.forEach((op, s) -> System.out.println("db " + op + ": " + s));
+    }
+
+    private <T> CompletableFuture<T> submit(String operation, ExecutorService executor, AtomicInteger depth,
+            Callable<ExpenseStore> handler, Function<ExpenseStore, T> work) {
+        OperationStats opStats = stats.computeIfAbsent(operation, k -> new OperationStats());
+        long enqueued = System.nanoTime();
+        depth.incrementAndGet();
+
+        CompletableFuture<T> result;
+        try {
+            result = CompletableFuture.supplyAsync(() -> {
+                depth.decrementAndGet();
+                long started = System.nanoTime();
+                try {
+                    return work.apply(handler.call());
+                } catch (CompletionException e) {
+                    // Already carries the real failure as its cause; wrapping again would hide it a level deeper
+                    throw e;
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                } finally {
+                    opStats.record(started - enqueued, System.nanoTime() - started);
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            depth.decrementAndGet();
+            return CompletableFuture.failedFuture(e);
+        }
+
+        // Complete on the callback executor, failures included
+        CompletableFuture<T> delivered = new CompletableFuture<>();
+        result.whenCompleteAsync((value, error) -> {
+            if (error != null)
+                delivered.completeExceptionally(error);
+            else
+                delivered.complete(value);
+        }, callbackExecutor);
+        return delivered;
+    }
+
+    private ExpenseStore readerHandler() throws SQLException {
+        ExpenseStore db = reader.get();
+        if (db == null) {
+            db = opener.get();
+            db.connect();
+            reader.set(db);
+            openReaders.add(db);
+        }
+        return db;
+    }
+
+    private static Supplier<ExpenseStore> sharing(ExpenseStore store) {
+        return () -> store;
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread t = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * Latency counters for one operation name. Queue time is how long a call
+     * waited for its thread; run time is the database work itself.
+     */
+
+    public static class OperationStats {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder queueNanos = new LongAdder();
+        private final LongAdder runNanos = new LongAdder();
+        private final AtomicLong maxRunNanos = new AtomicLong();
+
+        void record(long queued, long ran) {
+            count.increment();
+            queueNanos.add(queued);
+            runNanos.add(ran);
+            maxRunNanos.accumulateAndGet(ran, Math::max);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public double getAverageQueueMillis() {
+            long n = count.sum();
+            return n == 0 ? 0 : queueNanos.sum() / 1e6 / n;
+        }
+
+        public double getAverageRunMillis() {
+            long n = count.sum();
+            return n == 0 ? 0 : runNanos.sum() / 1e6 / n;
+        }
+
+        public double getMaxRunMillis() {
+            return maxRunNanos.get() / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d calls, avg queue %.2f ms, avg run %.2f ms, max run %.2f ms",
+                    getCount(), getAverageQueueMillis(), getAverageRunMillis(), getMaxRunMillis());
+        }
+    }
+}
@@ -6,43 +6,104 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.stream.Stream;
 
 public class CSVHandler {
 
-    // Read CSV file and return list of Expense objects
+    // Longest record gathered while a quoted field spans lines; beyond it the quote is taken as stray
+    static final int MAX_RECORD_CHARS = 64 * 1024;
+
+    /**
+     * Joins lines into records for {@link #split}, since a quoted field may
+     * run on over line breaks. Blank lines between records are skipped. A
+     * record still open past {@link #MAX_RECORD_CHARS}, or at the end of the
+     * input, had a stray quote: its first line is split with quotes taken
+     * literally, and the lines after it are read again as records of their own.
+     */
+    static final class Records {
+        private final List<String> open = new ArrayList<>(); // lines of a record whose quoted field is open
+        private int chars;
+
+        /** @return The records completed by {@code line}, each split into fields */
+        List<String[]> add(String line) {
+            List<String[]> out = new ArrayList<>(1);
+            feed(line, out);
+            return out;
+        }
+
+        /** @return The records left open at the end of the input */
+        List<String[]> finish() {
+            List<String[]> out = new ArrayList<>();
+            while (!open.isEmpty())
+                stray(out);
+            return out;
+        }
+
+        private void feed(String line, List<String[]> out) {
+            if (open.isEmpty() && line.isBlank())
+                return;
+
+            open.add(line);
+            chars += line.length() + 1;
+            String[] fields = split(open.size() == 1 ? line : String.join("\n", open));
+            if (fields != null) {
+                open.clear();
+                chars = 0;
+                out.add(fields);
+            } else if (open.size() > 1 && chars > MAX_RECORD_CHARS) {
+                stray(out);
+            }
+        }
+
+        private void stray(List<String[]> out) {
+            List<String> lines = new ArrayList<>(open);
+            open.clear();
+            chars = 0;
+            out.add(lines.get(0).split(",", -1));
+            for (String line : lines.subList(1, lines.size()))
+                feed(line, out);
+        }
+    }
+
+    /**
+     * Reads the whole file into a list. Fine for small files; imports go
+     * through {@link CsvImportPipeline}, which streams in constant memory.
+     */
     public List<Expense> readCSV(String csvFile) throws IOException {
 
         List<Expense> result = new ArrayList<>();
-        String delimiter = ",";
 
         try (BufferedReader br = new BufferedReader(new FileReader(csvFile))) {
 
             String line;
-            boolean isHeader = true;
+            Records records = new Records();
+            List<String[]> rows = new ArrayList<>();
 
-            while ((line = br.readLine()) != null) {
-                if (line.trim().isEmpty()) continue;
+            while ((line = br.readLine()) != null)
+                rows.addAll(records.add(line));
+            rows.addAll(records.finish());
 
+            boolean isHeader = true;
+            for (String[] fields : rows) {
                 // Skip header line
                 if (isHeader) {
                     isHeader = false;
                     continue;
                 }
 
-                String[] fields = line.split(delimiter, -1);
-
                 // Expected: Date, Name, Amount, Category, Description
                 if (fields.length < 4) continue;
 
                 String date = fields[0].trim();
                 String name = fields[1].trim();
-                double amount = Double.parseDouble(fields[2].trim());
+                long amountMinor = Money.parseMinor(fields[2]);
                 String category = fields[3].trim();
                 String description = fields.length > 4 ? fields[4].trim() : "";
 
                 // No ID used, SQLite will generate automatically
-                Expense ex = new Expense(null, date, name, amount, category, description);
+                Expense ex = new Expense(null, date, name, amountMinor, category, description);
                 result.add(ex);
             }
         }
@@ -50,9 +111,72 @@ public class CSVHandler {
         return result;
     }
 
+    /**
+     * Splits one record into fields per RFC 4180: a field that starts with a
+     * quote may hold commas, doubled quotes and line breaks.
+     *
+     * @return The fields, or null if a quoted field is still open at the end
+     *         of {@code record}, meaning the record continues on the next line
+     */
+    public static String[] split(String record) {
+        if (record.indexOf('"') < 0)
+            return record.split(",", -1);
+
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < record.length(); i++) {
+            char c = record.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < record.length() && record.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted)
+            return null;
+        fields.add(field.toString());
+        return fields.toArray(new String[0]);
+    }
+
+    /**
+     * Quotes one field per RFC 4180 when it holds a comma, quote or line
+     * break, doubling any quotes; other fields are written as they are.
+     */
+    public static String quote(String field) {
+        if (field == null)
+            return "";
+        if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0 && field.indexOf('\r') < 0)
+            return field;
+        return '"' + field.replace("\"", "\"\"") + '"';
+    }
+
     // Write CSV using clean export format
-    @SuppressWarnings("unused")
     public void writeCSV(String csvFile, List<Expense> expenses) throws IOException {
+        writeCSV(csvFile, expenses.stream());
+    }
+
+    /**
+     * Writes expenses as they are pulled from the stream, so an export from
+     * {@link DatabaseHandler#streamExpenses} never holds more than one row.
+     *
+     * @return The number of rows written
+     */
+    public long writeCSV(String csvFile, Stream<Expense> expenses) throws IOException {
+
+        long rows = 0;
 
         try (BufferedWriter bw = new BufferedWriter(new FileWriter(csvFile))) {
 
@@ -60,14 +184,19 @@ public class CSVHandler {
             bw.write("Date,Name,Amount,Category,Description");
             bw.newLine();
 
-            for (Expense e : expenses) {
-                bw.write(e.getDate() + "," +
-                        e.getName() + "," +
-                        e.getAmount() + "," +
-                        e.getCategory() + "," +
-                        e.getDescription());
+            Iterator<Expense> it = expenses.iterator();
+            while (it.hasNext()) {
+                Expense e = it.next();
+                bw.write(quote(e.getDate()) + "," +
+                        quote(e.getName()) + "," +
+                        Money.format(e.getAmountMinor()) + "," +
+                        quote(e.getCategory()) + "," +
+                        quote(e.getDescription()));
                 bw.newLine();
+                rows++;
             }
         }
+
+        return rows;
     }
 }
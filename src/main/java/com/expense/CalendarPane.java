@@ -17,17 +17,31 @@ import java.time.LocalDate;
 import java.time.YearMonth;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Month calendar of a user's spending. Only the shown month's daily totals
+ * are read; a day's expenses are read when its cell is clicked. Both come
+ * from the repository's memory when the month is resident.
+ */
 
 public class CalendarPane extends VBox {
 
-    private final List<Expense> expenses;
+    private final ExpenseRepository repository;
+    private final DoubleUnaryOperator toDisplay; // USD -> selected currency
+
     private final ComboBox<String> monthBox;
     private final ComboBox<Integer> yearBox;
     private final GridPane calendarGrid;
 
-    public CalendarPane(List<Expense> expenses) {
-        this.expenses = expenses;
+    // Daily totals (cents) of the month last read, and a counter to drop stale reads
+    private YearMonth shownMonth;
+    private Map<LocalDate, Long> dailyTotals = Map.of();
+    private long requestSeq;
+
+    public CalendarPane(ExpenseRepository repository, DoubleUnaryOperator toDisplay) {
+        this.repository = repository;
+        this.toDisplay = toDisplay;
 
         setSpacing(10);
         setPadding(new Insets(10));
@@ -46,8 +60,8 @@ public class CalendarPane extends VBox {
         yearBox.setValue(LocalDate.now().getYear());
 
         // Shortened Lambda
-        monthBox.setOnAction(e -> updateCalendar());
-        yearBox.setOnAction(e -> updateCalendar());
+        monthBox.setOnAction(e -> refresh());
+        yearBox.setOnAction(e -> refresh());
 
         HBox header = new HBox(10, new Label("Month:"), monthBox,
                 new Label("Year:"), yearBox);
@@ -59,38 +73,39 @@ public class CalendarPane extends VBox {
         calendarGrid.setVgap(5);
 
         getChildren().addAll(header, calendarGrid);
+    }
 
-        updateCalendar();
+    /**
+     * Re-reads the selected month's daily totals and redraws.
+     */
+    public void refresh() {
+        YearMonth selected = YearMonth.of(yearBox.getValue(), Integer.parseInt(monthBox.getValue()));
+        long seq = ++requestSeq;
+
+        repository.getDailyTotals(selected).thenAccept(totals -> {
+            // The month was changed again while this one was read
+            if (seq != requestSeq)
+                return;
+            shownMonth = selected;
+            dailyTotals = totals;
+            redraw();
+        });
     }
 
-    private void updateCalendar() {
+    /**
+     * Redraws the last read month, e.g. after the display currency changed.
+     */
+    public void redraw() {
         calendarGrid.getChildren().clear();
+        if (shownMonth == null)
+            return;
 
-        int month = Integer.parseInt(monthBox.getValue());
-        int year = yearBox.getValue();
-        YearMonth selected = YearMonth.of(year, month);
-
-        LocalDate firstDay = selected.atDay(1);
-        int daysInMonth = selected.lengthOfMonth();
-
-        // Spending per day
-        Map<Integer, Double> spendingPerDay = expenses.stream()
-                .filter(e -> {
-                    try {
-                        LocalDate d = LocalDate.parse(e.getDate());
-                        return d.getYear() == year && d.getMonthValue() == month;
-                    } catch (Exception ex) {
-                        return false;
-                    }
-                })
-                .collect(Collectors.groupingBy(
-                        e -> LocalDate.parse(e.getDate()).getDayOfMonth(),
-                        Collectors.summingDouble(Expense::getDisplayAmount)
-                ));
-
-        // Top spending days
-        List<Integer> top3Days = spendingPerDay.entrySet().stream()
-                .sorted(Map.Entry.<Integer, Double>comparingByValue().reversed())
+        LocalDate firstDay = shownMonth.atDay(1);
+        int daysInMonth = shownMonth.lengthOfMonth();
+
+        // Top spending days, ranked on exact cents
+        List<LocalDate> top3Days = dailyTotals.entrySet().stream()
+                .sorted(Map.Entry.<LocalDate, Long>comparingByValue().reversed())
                 .limit(3)
                 .map(Map.Entry::getKey)
                 .toList();
@@ -101,7 +116,9 @@ public class CalendarPane extends VBox {
 
         for (int day = 1; day <= daysInMonth; day++) {
 
-            double spending = spendingPerDay.getOrDefault(day, 0.0);
+            LocalDate date = firstDay.withDayOfMonth(day);
+            long spendingMinor = dailyTotals.getOrDefault(date, 0L);
+            double spending = toDisplay.applyAsDouble(Money.toMajor(spendingMinor));
 
             VBox cell = new VBox();
             cell.setAlignment(Pos.TOP_CENTER);
@@ -110,7 +127,7 @@ public class CalendarPane extends VBox {
             Label dayLabel = new Label(String.valueOf(day));
             dayLabel.getStyleClass().add("calendar-day-label");
 
-            Label spendLabel = new Label(spending > 0 ? String.format("$%.2f", spending) : "");
+            Label spendLabel = new Label(spendingMinor > 0 ? String.format("$%.2f", spending) : "");
             spendLabel.getStyleClass().add("calendar-spend-label");
 
             cell.getChildren().addAll(dayLabel, spendLabel);
@@ -120,8 +137,8 @@ public class CalendarPane extends VBox {
             Background spendingBg = new Background(new BackgroundFill(Color.web("#e8f5ff"), null, null));
             Background topBg = new Background(new BackgroundFill(Color.web("#ffcccc"), null, null));
 
-            if (top3Days.contains(day)) cell.setBackground(topBg);
-            else if (spending > 0)    cell.setBackground(spendingBg);
+            if (top3Days.contains(date)) cell.setBackground(topBg);
+            else if (spendingMinor > 0) cell.setBackground(spendingBg);
             else                      cell.setBackground(normalBg);
 
             // Hover effect
@@ -142,9 +159,9 @@ public class CalendarPane extends VBox {
                     BorderWidths.DEFAULT
             ))));
 
-            // Click event
-            LocalDate clickedDate = LocalDate.of(year, month, day);
-            cell.setOnMouseClicked(ev -> showDayDetails(clickedDate));
+            // Click event: the day's rows are read only now
+            cell.setOnMouseClicked(ev -> repository.getExpensesInRange(date, date)
+                    .thenAccept(dayExpenses -> showDayDetails(date, dayExpenses)));
 
             calendarGrid.add(cell, col, row);
 
@@ -156,17 +173,11 @@ public class CalendarPane extends VBox {
         }
     }
 
-    private void showDayDetails(LocalDate date) {
+    private void showDayDetails(LocalDate date, List<Expense> dayExpenses) {
 
-        List<Expense> dayExpenses = expenses.stream()
-                .filter(e -> {
-                    try {
-                        return LocalDate.parse(e.getDate()).equals(date);
-                    } catch (Exception ex) {
-                        return false;
-                    }
-                })
-                .toList();
+        for (Expense e : dayExpenses) {
+            e.setDisplayAmount(toDisplay.applyAsDouble(e.getAmount()));
+        }
 
         Stage detailStage = new Stage();
         detailStage.setTitle("Expenses on " + date);
@@ -0,0 +1,98 @@
+package com.expense;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * In-memory copy of the categories table. Expenses store a small integer
+ * category_id; rows are decoded through this dictionary with an array lookup
+ * instead of any per-row string work.
+ */
+
+public class CategoryDictionary {
+
+    public static final String DEFAULT_CATEGORY = "Other";
+
+    private final Map<String, Integer> idsByName = new HashMap<>();
+    private String[] namesById = new String[32];
+
+    /**
+     * Replaces the dictionary contents with the categories table.
+     */
+
+    public void load(Connection connection) throws SQLException {
+        idsByName.clear();
+        Arrays.fill(namesById, null);
+
+        try (Statement stmt = connection.createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT id, name FROM categories")) {
+            while (rs.next()) {
+                put(rs.getInt("id"), rs.getString("name"));
+            }
+        }
+    }
+
+    /**
+     * @return The category name for an id, or "Other" for an unknown id
+     */
+
+    public String nameOf(int id) {
+        if (id <= 0 || id >= namesById.length || namesById[id] == null)
+            return DEFAULT_CATEGORY;
+        return namesById[id];
+    }
+
+    public boolean contains(int id) {
+        return id > 0 && id < namesById.length && namesById[id] != null;
+    }
+
+    /**
+     * @return The id of an already normalized category name, or -1 if unknown
+     */
+
+    public int idOf(String name) {
+        Integer id = idsByName.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Returns the id for a normalized category name, inserting a new row into
+     * the categories table the first time a name is seen. The new id is
+     * cached at once, so call this outside a transaction, or reload after
+     * rolling one back.
+     */
+
+    public int getOrCreate(Connection connection, String name) throws SQLException {
+        Integer id = idsByName.get(name);
+        if (id != null)
+            return id;
+
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT OR IGNORE INTO categories (name) VALUES (?)")) {
+            insert.setString(1, name);
+            insert.executeUpdate();
+        }
+
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT id FROM categories WHERE name = ?")) {
+            select.setString(1, name);
+            try (ResultSet rs = select.executeQuery()) {
+                if (!rs.next())
+                    throw new SQLException("Category was not created: " + name);
+                put(rs.getInt(1), name);
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    public Set<String> names() {
+        return Collections.unmodifiableSet(idsByName.keySet());
+    }
+
+    private void put(int id, String name) {
+        if (id >= namesById.length)
+            namesById = Arrays.copyOf(namesById, Math.max(id + 1, namesById.length * 2));
+        namesById[id] = name;
+        idsByName.put(name, id);
+    }
+}
@@ -0,0 +1,271 @@
+package com.expense;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Maps user-typed categories (e.g. "taxi", "Fod") to the canonical names
+ * stored in the categories table. Shared by the UI, DatabaseHandler and
+ * schema migrations, and safe to call from several threads.
+ *
+ * Exact aliases are a hash lookup. Anything else is matched against the
+ * alias keys with a BK-tree, using an edit distance that gives up as soon
+ * as it exceeds what the search can still use. Results are memoized per
+ * raw input in a bounded, concurrent LRU, so a large import pays for each
+ * distinct spelling once.
+ */
+
+public final class CategoryNormalizer {
+
+    // Matches farther than this fall back to "Other"
+    public static final int MAX_DISTANCE = 2;
+
+    private static final int DEFAULT_MEMO_CAPACITY = 10_000;
+
+    private static final CategoryNormalizer SHARED = new CategoryNormalizer(defaultAliases(), DEFAULT_MEMO_CAPACITY);
+
+    private final Map<String, String> aliases;
+    private final BkNode root;
+    private final LruMemo memo;
+
+    private final LongAdder memoHits = new LongAdder();
+    private final LongAdder memoMisses = new LongAdder();
+
+    public CategoryNormalizer(Map<String, String> aliases, int memoCapacity) {
+        this.aliases = Map.copyOf(aliases);
+
+        // Sorted insertion keeps the tree, and tie-breaks, deterministic
+        BkNode tree = null;
+        for (String key : new TreeSet<>(this.aliases.keySet())) {
+            if (tree == null)
+                tree = new BkNode(key);
+            else
+                tree.add(key);
+        }
+        this.root = tree;
+        this.memo = new LruMemo(memoCapacity);
+    }
+
+    public static CategoryNormalizer shared() {
+        return SHARED;
+    }
+
+    /**
+     * @return The canonical category for the input, or "Other" when it is
+     *         blank or more than {@link #MAX_DISTANCE} edits from every alias
+     */
+
+    public String normalize(String input) {
+        if (input == null || input.isBlank())
+            return CategoryDictionary.DEFAULT_CATEGORY;
+
+        String cached = memo.get(input);
+        if (cached != null) {
+            memoHits.increment();
+            return cached;
+        }
+        memoMisses.increment();
+
+        String result = resolve(input.toLowerCase().trim());
+        memo.put(input, result);
+        return result;
+    }
+
+    public long getMemoHits() {
+        return memoHits.sum();
+    }
+
+    public long getMemoMisses() {
+        return memoMisses.sum();
+    }
+
+    private String resolve(String key) {
+        String exact = aliases.get(key);
+        if (exact != null)
+            return exact;
+
+        if (root == null)
+            return CategoryDictionary.DEFAULT_CATEGORY;
+
+        String[] best = { null };
+        int[] bestDistance = { MAX_DISTANCE + 1 };
+        root.search(key, best, bestDistance);
+
+        return best[0] == null ? CategoryDictionary.DEFAULT_CATEGORY : aliases.get(best[0]);
+    }
+
+    /**
+     * Levenshtein distance that stops early once it must exceed {@code limit}.
+     * Uses two rolling rows instead of a full table.
+     *
+     * @return The exact distance if it is at most {@code limit}, otherwise
+     *         {@code limit + 1}
+     */
+
+    static int boundedDistance(String a, String b, int limit) {
+        int la = a.length();
+        int lb = b.length();
+        if (Math.abs(la - lb) > limit)
+            return limit + 1;
+
+        int[] prev = new int[lb + 1];
+        int[] curr = new int[lb + 1];
+        for (int j = 0; j <= lb; j++)
+            prev[j] = j;
+
+        for (int i = 1; i <= la; i++) {
+            curr[0] = i;
+            int rowMin = curr[0];
+            char ca = a.charAt(i - 1);
+
+            for (int j = 1; j <= lb; j++) {
+                int cost = ca == b.charAt(j - 1) ? 0 : 1;
+                curr[j] = Math.min(prev[j - 1] + cost, Math.min(prev[j], curr[j - 1]) + 1);
+                rowMin = Math.min(rowMin, curr[j]);
+            }
+
+            // Every later cell descends from this row, so none can get below its minimum
+            if (rowMin > limit)
+                return limit + 1;
+
+            int[] swap = prev;
+            prev = curr;
+            curr = swap;
+        }
+
+        return Math.min(prev[lb], limit + 1);
+    }
+
+    // BK-tree over the alias keys; children are keyed by their distance to this node
+    private static final class BkNode {
+        final String key;
+        final Map<Integer, BkNode> children = new HashMap<>();
+        int maxEdge;
+
+        BkNode(String key) {
+            this.key = key;
+        }
+
+        void add(String word) {
+            BkNode node = this;
+            while (true) {
+                int d = boundedDistance(word, node.key, Integer.MAX_VALUE - 1);
+                if (d == 0)
+                    return;
+
+                BkNode child = node.children.get(d);
+                if (child == null) {
+                    node.children.put(d, new BkNode(word));
+                    node.maxEdge = Math.max(node.maxEdge, d);
+                    return;
+                }
+                node = child;
+            }
+        }
+
+        void search(String query, String[] best, int[] bestDistance) {
+            int tolerance = bestDistance[0] - 1;
+
+            // Children are only reachable for d <= maxEdge + tolerance
+            int limit = Math.max(tolerance, maxEdge + tolerance);
+            int d = boundedDistance(query, key, limit);
+
+            if (d < bestDistance[0]) {
+                best[0] = key;
+                bestDistance[0] = d;
+                tolerance = d - 1;
+            }
+
+            if (d > limit || tolerance < 0)
+                return;
+
+            for (int edge = Math.max(1, d - tolerance); edge <= d + tolerance; edge++) {
+                BkNode child = children.get(edge);
+                if (child != null) {
+                    child.search(query, best, bestDistance);
+                    tolerance = bestDistance[0] - 1;
+                    if (tolerance < 0)
+                        return;
+                }
+            }
+        }
+    }
+
+    // Lock-striped LRU: each segment is an access-ordered LinkedHashMap
+    private static final class LruMemo {
+        private static final int SEGMENTS = 16;
+
+        private final List<Map<String, String>> segments = new ArrayList<>(SEGMENTS);
+
+        LruMemo(int capacity) {
+            int perSegment = Math.max(1, capacity / SEGMENTS);
+            for (int i = 0; i < SEGMENTS; i++) {
+                segments.add(Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                        return size() > perSegment;
+                    }
+                }));
+            }
+        }
+
+        String get(String key) {
+            return segment(key).get(key);
+        }
+
+        void put(String key, String value) {
+            segment(key).put(key, value);
+        }
+
+        private Map<String, String> segment(String key) {
+            int h = key.hashCode();
+            return segments.get((h ^ (h >>> 16)) & (SEGMENTS - 1));
+        }
+    }
+
+    // Lower-case alias -> canonical category name. Exactly the union of the maps the app
+    // and DatabaseHandler kept before, typo aliases such as "helth" included
+    static Map<String, String> defaultAliases() {
+        Map<String, String> map = new HashMap<>();
+
+        map.put("food", "Food & Drinks");
+        map.put("foods", "Food & Drinks");
+        map.put("drink", "Food & Drinks");
+        map.put("drinks", "Food & Drinks");
+        map.put("meal", "Food & Drinks");
+        map.put("food & drinks", "Food & Drinks");
+        map.put("lunch", "Food & Drinks");
+        map.put("dinner", "Food & Drinks");
+
+        map.put("utilities", "Utilities");
+
+        map.put("care", "Personal Care");
+        map.put("personal care", "Personal Care");
+
+        map.put("entertainment", "Entertainment");
+        map.put("movie", "Entertainment");
+        map.put("cinema", "Entertainment");
+
+        map.put("education", "Education");
+        map.put("school", "Education");
+        map.put("course", "Education");
+
+        map.put("health", "Health");
+        map.put("helth", "Health");
+        map.put("medical", "Health");
+
+        map.put("transport", "Transportation");
+        map.put("transportation", "Transportation");
+        map.put("taxi", "Transportation");
+        map.put("grab", "Transportation");
+
+        map.put("electronic", "Electronics");
+        map.put("electronics", "Electronics");
+        map.put("device", "Electronics");
+
+        map.put("sport", "Sports");
+        map.put("sports", "Sports");
+
+        return map;
+    }
+}
@@ -0,0 +1,129 @@
+package com.expense;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures category normalization throughput on a synthetic import.
+ *
+ * Run: mvn -q compile exec:java -Dexec.mainClass=com.expense.CategoryNormalizerBenchmark -Dexec.args="5000000 4"
+ * (arguments: row count, thread count)
+ */
+
+public class CategoryNormalizerBenchmark {
+
+    // Realistic raw values: exact aliases, case/space noise, typos and unknowns
+    private static final String[] BASE = {
+            "food", "Food", " FOOD ", "fod", "foood", "drinks", "lunch", "dinner", "meal",
+            "taxi", "Taxi", "grab", "Grab ", "transprt", "transportation",
+            "health", "helth", "medical", "medicl", "school", "course", "cours",
+            "movie", "movies", "cinema", "electronics", "electronic", "device",
+            "sport", "sports", "utilities", "utilites", "personal care", "care",
+            "rent", "groceries", "gift", "insurance", "" };
+
+    private static final Map<String, String> LEGACY_MAP = CategoryNormalizer.defaultAliases();
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        String[] inputs = syntheticInputs(rows);
+
+        // Warm up the JIT on a fresh instance so the measured run starts cold on the memo
+        run(new CategoryNormalizer(CategoryNormalizer.defaultAliases(), 10_000), inputs, threads, Math.min(rows, 200_000));
+
+        CategoryNormalizer normalizer = new CategoryNormalizer(CategoryNormalizer.defaultAliases(), 10_000);
+        double seconds = run(normalizer, inputs, threads, rows);
+
+        System.out.printf("CategoryNormalizer: %,d rows on %d threads in %.3f s = %,.0f rows/sec%n",
+                rows, threads, seconds, rows / seconds);
+        System.out.printf("  memo hits %,d, misses %,d%n", normalizer.getMemoHits(), normalizer.getMemoMisses());
+
+        // Unmemoized, unbounded search, the way every row used to be normalized
+        int legacyRows = Math.min(rows, 200_000);
+        long start = System.nanoTime();
+        for (int i = 0; i < legacyRows; i++) {
+            legacyNormalize(inputs[i]);
+        }
+        double legacySeconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        System.out.printf("Legacy full-table Levenshtein: %,d rows on 1 thread in %.3f s = %,.0f rows/sec%n",
+                legacyRows, legacySeconds, legacyRows / legacySeconds);
+    }
+
+    private static double run(CategoryNormalizer normalizer, String[] inputs, int threads, int rows)
+            throws InterruptedException, ExecutionException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        AtomicInteger next = new AtomicInteger();
+        LongAdder sink = new LongAdder(); // keeps results observable so the JIT cannot drop them
+        int chunk = 10_000;
+
+        long start = System.nanoTime();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(pool.submit(() -> {
+                int from;
+                while ((from = next.getAndAdd(chunk)) < rows) {
+                    int to = Math.min(rows, from + chunk);
+                    for (int i = from; i < to; i++) {
+                        sink.add(normalizer.normalize(inputs[i]).length());
+                    }
+                }
+            }));
+        }
+        for (Future<?> f : futures)
+            f.get();
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+
+        pool.shutdown();
+        if (sink.sum() == 0)
+            System.out.println();
+        return seconds;
+    }
+
+    private static String[] syntheticInputs(int rows) {
+        Random random = new Random(42);
+        String[] inputs = new String[rows];
+        for (int i = 0; i < rows; i++) {
+            // ~1% one-off free text so the memo sees misses throughout the run
+            inputs[i] = random.nextInt(100) == 0
+                    ? "misc-" + random.nextInt(50_000)
+                    : BASE[random.nextInt(BASE.length)];
+        }
+        return inputs;
+    }
+
+    private static String legacyNormalize(String input) {
+        if (input == null || input.trim().isEmpty())
+            return CategoryDictionary.DEFAULT_CATEGORY;
+
+        input = input.toLowerCase().trim();
+        if (LEGACY_MAP.containsKey(input))
+            return LEGACY_MAP.get(input);
+
+        String bestMatch = null;
+        int bestDistance = Integer.MAX_VALUE;
+
+        for (String key : LEGACY_MAP.keySet()) {
+            int[][] dp = new int[input.length() + 1][key.length() + 1];
+            for (int i = 0; i <= input.length(); i++)
+                dp[i][0] = i;
+            for (int j = 0; j <= key.length(); j++)
+                dp[0][j] = j;
+            for (int i = 1; i <= input.length(); i++) {
+                for (int j = 1; j <= key.length(); j++) {
+                    if (input.charAt(i - 1) == key.charAt(j - 1))
+                        dp[i][j] = dp[i - 1][j - 1];
+                    else
+                        dp[i][j] = 1 + Math.min(dp[i - 1][j - 1], Math.min(dp[i - 1][j], dp[i][j - 1]));
+                }
+            }
+            if (dp[input.length()][key.length()] < bestDistance) {
+                bestDistance = dp[input.length()][key.length()];
+                bestMatch = key;
+            }
+        }
+        return bestDistance <= 2 ? LEGACY_MAP.get(bestMatch) : CategoryDictionary.DEFAULT_CATEGORY;
+    }
+}
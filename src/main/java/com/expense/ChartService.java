@@ -11,6 +11,7 @@ import javafx.scene.shape.Circle;
 import javafx.stage.Stage;
 
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 
 public class ChartService {
@@ -64,11 +65,13 @@ public class ChartService {
         StackedBarChart<String, Number> chart = new StackedBarChart<>(xAxis, yAxis);
         chart.setTitle("Monthly Expenses");
 
-        Map<String, Map<String, Double>> grouped =
+        // Group on the integer month key; format a label only per bucket
+        Map<String, Map<Integer, Double>> grouped =
                 expenses.stream().collect(Collectors.groupingBy(
                         Expense::getCategory,
                         Collectors.groupingBy(
-                                e -> e.getDate().substring(0, 7),
+                                Expense::getMonthKey,
+                                TreeMap::new,
                                 Collectors.summingDouble(Expense::getDisplayAmount)
                         )));
 
@@ -77,7 +80,7 @@ public class ChartService {
             series.setName(category);
 
             monthData.forEach((month, amount) ->
-                    series.getData().add(new XYChart.Data<>(month, amount)));
+                    series.getData().add(new XYChart.Data<>(DateKeys.monthLabel(month), amount)));
 
             chart.getData().add(series);
         });
@@ -133,7 +136,7 @@ public class ChartService {
         series.setName("Daily Spending");
 
         expenses.stream()
-                .sorted(java.util.Comparator.comparing(Expense::getDate))
+                .sorted(java.util.Comparator.comparingInt(Expense::getEpochDay))
                 .forEach(e -> series.getData().add(
                         new XYChart.Data<>(e.getDate(), e.getDisplayAmount())
                 ));
@@ -160,7 +163,7 @@ public class ChartService {
         series.setName("Daily Spending");
 
         expenses.stream()
-                .sorted(java.util.Comparator.comparing(Expense::getDate))
+                .sorted(java.util.Comparator.comparingInt(Expense::getEpochDay))
                 .forEach(e -> series.getData().add(
                         new XYChart.Data<>(e.getDate(), e.getDisplayAmount())
                 ));
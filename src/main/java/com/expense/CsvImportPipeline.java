@@ -0,0 +1,424 @@
+package com.expense;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Imports a CSV file in the {@link CSVHandler} layout in constant memory,
+ * however large the file. Four stages run at once, each on its own thread:
+ * <pre>
+ * read      lines from the file
+ * parse     lines into fields, dropping the header and blank lines
+ * validate  fields into expenses: date, amount and name checked, category normalized
+ * insert    expenses into the store in batched transactions (the calling thread)
+ * </pre>
+ * Stages hand rows on in chunks through bounded queues. A stage that gets
+ * ahead blocks until the next one catches up, so at most
+ * {@code (queueChunks + 2) * chunkRows} rows per queue are in memory. For
+ * every stage the result records its rows, the time spent waiting for
+ * input and the time spent blocked on a full output queue: the stage that
+ * waits least is the bottleneck. If the store stops taking rows because a
+ * batch failed, the rest of the file is not read and the result counts the
+ * rows the store was given but did not commit.
+ *
+ * Run: mvn -q compile exec:java -Dexec.mainClass=com.expense.CsvImportPipeline -Dexec.args="expenses.csv"
+ * (imports into the in-memory store and prints the stage report)
+ */
+
+public class CsvImportPipeline {
+
+    public static final int DEFAULT_CHUNK_ROWS = 1000;
+    public static final int DEFAULT_QUEUE_CHUNKS = 8;
+
+    // Ends a queue; sent even when a stage fails so the stages after it stop
+    private static final List<Object> END = Collections.unmodifiableList(new ArrayList<>());
+
+    private final int chunkRows;
+    private final int queueChunks;
+
+    public CsvImportPipeline() {
+        this(DEFAULT_CHUNK_ROWS, DEFAULT_QUEUE_CHUNKS);
+    }
+
+    /**
+     * @param chunkRows   Rows handed from one stage to the next at a time
+     * @param queueChunks Chunks a queue holds before the stage feeding it blocks
+     */
+    public CsvImportPipeline(int chunkRows, int queueChunks) {
+        if (chunkRows < 1 || queueChunks < 1)
+            throw new IllegalArgumentException("Chunk size and queue length must be positive");
+        this.chunkRows = chunkRows;
+        this.queueChunks = queueChunks;
+    }
+
+    /** Counters for one stage. */
+    public static final class StageStats {
+        private final String name;
+        private final AtomicLong rows = new AtomicLong();
+        private final AtomicLong inputWaitNanos = new AtomicLong();
+        private final AtomicLong outputWaitNanos = new AtomicLong();
+        private volatile long elapsedNanos;
+
+        StageStats(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getRows() {
+            return rows.get();
+        }
+
+        /** Time spent waiting for the previous stage. */
+        public double getInputWaitMillis() {
+            return inputWaitNanos.get() / 1e6;
+        }
+
+        /** Time spent blocked because the next stage was behind. */
+        public double getOutputWaitMillis() {
+            return outputWaitNanos.get() / 1e6;
+        }
+
+        public double getRowsPerSecond() {
+            return elapsedNanos > 0 ? rows.get() * 1e9 / elapsedNanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-9s %,12d rows %,12.0f rows/sec  waiting for input %,9.1f ms, "
+                    + "blocked on output %,9.1f ms", name, rows.get(), getRowsPerSecond(), getInputWaitMillis(),
+                    getOutputWaitMillis());
+        }
+    }
+
+    /**
+     * @param lines    Lines read, blank ones and the header included
+     * @param saved    Expenses the store committed
+     * @param rejected Rows dropped by the parse and validate stages
+     * @param unsaved  Valid rows the store failed to commit; when not 0 the
+     *                 import stopped there and the rest of the file was skipped
+     */
+    public record Result(long lines, long saved, long rejected, long unsaved, double seconds,
+            List<StageStats> stages) {
+
+        public double rowsPerSecond() {
+            return seconds > 0 ? saved / seconds : saved;
+        }
+
+        /** Whether the store failed part way, leaving the file partly imported. */
+        public boolean failed() {
+            return unsaved > 0;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder(String.format(
+                    "CSV import: %,d lines, %,d saved, %,d rejected, %,d not saved in %.2f s (%,.0f rows/sec)",
+                    lines, saved, rejected, unsaved, seconds, rowsPerSecond()));
+            stages.forEach(stage -> text.append(System.lineSeparator()).append("  ").append(stage));
+            return text.toString();
+        }
+    }
+
+    /**
+     * Imports {@code file} for {@code userId}. Returns once every stage has
+     * finished; a failure in any stage stops the rest and is rethrown. A
+     * store that fails reports it through its logs and return value only, so
+     * check {@link Result#failed()}.
+     *
+     * @throws IOException If the file cannot be read; rows committed before
+     *                     the failure stay in the store
+     */
+    public Result run(Path file, ExpenseStore store, int userId) throws IOException {
+        long start = System.nanoTime();
+        StageStats read = new StageStats("read");
+        StageStats parse = new StageStats("parse");
+        StageStats validate = new StageStats("validate");
+        StageStats insert = new StageStats("insert");
+        AtomicLong rejected = new AtomicLong();
+        AtomicBoolean stopped = new AtomicBoolean();
+
+        BlockingQueue<List<?>> lines = new ArrayBlockingQueue<>(queueChunks);
+        BlockingQueue<List<?>> fields = new ArrayBlockingQueue<>(queueChunks);
+        BlockingQueue<List<?>> expenses = new ArrayBlockingQueue<>(queueChunks);
+
+        Stage reader = new Stage(read, null, lines) {
+            @Override
+            void work() throws Exception {
+                // Bytes that are not UTF-8 (a Windows-1252 bank export) become U+FFFD rather than failing half way
+                try (BufferedReader in = new BufferedReader(new InputStreamReader(Files.newInputStream(file),
+                        StandardCharsets.UTF_8.newDecoder()
+                                .onMalformedInput(CodingErrorAction.REPLACE)
+                                .onUnmappableCharacter(CodingErrorAction.REPLACE)))) {
+                    List<Object> chunk = new ArrayList<>(chunkRows);
+                    String line;
+                    while (!stopped.get() && (line = in.readLine()) != null) {
+                        chunk.add(line);
+                        if (chunk.size() == chunkRows)
+                            chunk = emit(chunk);
+                    }
+                    emit(chunk);
+                }
+            }
+        };
+
+        Stage parser = new Stage(parse, lines, fields) {
+            final CSVHandler.Records records = new CSVHandler.Records();
+            boolean header = true;
+
+            @Override
+            void work() throws Exception {
+                List<?> in;
+                while ((in = next()) != END) {
+                    List<Object> out = new ArrayList<>(in.size());
+                    for (Object line : in)
+                        records.add((String) line).forEach(row -> accept(row, out));
+                    emit(out);
+                }
+                List<Object> out = new ArrayList<>();
+                records.finish().forEach(row -> accept(row, out));
+                emit(out);
+            }
+
+            private void accept(String[] row, List<Object> out) {
+                // The first non-blank record is the header
+                if (header) {
+                    header = false;
+                    return;
+                }
+                // Expected: Date, Name, Amount, Category, Description
+                if (row.length < 4)
+                    rejected.incrementAndGet();
+                else
+                    out.add(row);
+            }
+        };
+
+        CategoryNormalizer categories = CategoryNormalizer.shared();
+        Stage validator = new Stage(validate, fields, expenses) {
+            @Override
+            void work() throws Exception {
+                List<?> in;
+                while ((in = next()) != END) {
+                    List<Object> out = new ArrayList<>(in.size());
+                    for (Object o : in) {
+                        Expense e = toExpense((String[]) o, categories);
+                        if (e == null)
+                            rejected.incrementAndGet();
+                        else
+                            out.add(e);
+                    }
+                    emit(out);
+                }
+            }
+        };
+
+        reader.start();
+        parser.start();
+        validator.start();
+
+        // The store pulls rows through this iterator and commits them in batches
+        ChunkIterator rows = new ChunkIterator(expenses, insert);
+        long saved;
+        try {
+            saved = store.saveExpenses(rows, userId);
+        } finally {
+            // If the store stopped early, stop reading and take what is queued so the stages above finish
+            stopped.set(true);
+            while (rows.hasNext())
+                rows.next();
+            for (Stage stage : List.of(reader, parser, validator))
+                stage.finish();
+        }
+        insert.rows.set(saved);
+        insert.elapsedNanos = System.nanoTime() - start;
+
+        for (Stage stage : List.of(reader, parser, validator))
+            stage.rethrow();
+
+        return new Result(read.getRows(), saved, rejected.get(), rows.taken - saved,
+                (System.nanoTime() - start) / 1e9, List.of(read, parse, validate, insert));
+    }
+
+    // Null when a field is missing or malformed
+    private static Expense toExpense(String[] row, CategoryNormalizer categories) {
+        String name = row[1].trim();
+        if (name.isEmpty())
+            return null;
+        try {
+            String date = LocalDate.parse(row[0].trim()).toString();
+            long amountMinor = Money.parseMinor(row[2].trim());
+            String category = categories.normalize(row[3].trim());
+            String description = row.length > 4 ? row[4].trim() : "";
+            return new Expense(null, date, name, amountMinor, category, description);
+        } catch (DateTimeParseException | NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    // ===== Stages =====
+
+    /** One stage on its own thread: takes chunks from {@code in}, puts chunks on {@code out}. */
+    private abstract static class Stage extends Thread {
+        private final StageStats stats;
+        private final BlockingQueue<List<?>> in;
+        private final BlockingQueue<List<?>> out;
+        private volatile Exception failure;
+
+        Stage(StageStats stats, BlockingQueue<List<?>> in, BlockingQueue<List<?>> out) {
+            super("csv-" + stats.getName());
+            setDaemon(true);
+            this.stats = stats;
+            this.in = in;
+            this.out = out;
+        }
+
+        abstract void work() throws Exception;
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            try {
+                work();
+            } catch (Exception ex) {
+                failure = ex;
+                // Drain the input so the stage before this one is not left blocked
+                if (in != null) {
+                    try {
+                        while (next() != END)
+                            ;
+                    } catch (InterruptedException ignored) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            } finally {
+                stats.elapsedNanos = System.nanoTime() - start;
+                try {
+                    put(END);
+                } catch (InterruptedException ignored) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        List<?> next() throws InterruptedException {
+            long waitStart = System.nanoTime();
+            List<?> chunk = in.take();
+            stats.inputWaitNanos.addAndGet(System.nanoTime() - waitStart);
+            return chunk;
+        }
+
+        // Returns a fresh list for the next chunk
+        List<Object> emit(List<Object> chunk) throws InterruptedException {
+            if (!chunk.isEmpty()) {
+                stats.rows.addAndGet(chunk.size());
+                put(chunk);
+            }
+            return new ArrayList<>(chunk.size());
+        }
+
+        private void put(List<?> chunk) throws InterruptedException {
+            long waitStart = System.nanoTime();
+            out.put(chunk);
+            stats.outputWaitNanos.addAndGet(System.nanoTime() - waitStart);
+        }
+
+        // The input is drained by now, so the stage ends soon; interrupts are kept for the caller
+        void finish() {
+            boolean interrupted = false;
+            while (isAlive()) {
+                try {
+                    join();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+
+        void rethrow() throws IOException {
+            if (failure instanceof IOException io)
+                throw io;
+            if (failure instanceof RuntimeException runtime)
+                throw runtime;
+            if (failure != null)
+                throw new IOException("CSV " + stats.getName() + " stage failed", failure);
+        }
+    }
+
+    /** Flattens the last queue's chunks into single expenses for the store. */
+    private static final class ChunkIterator implements Iterator<Expense> {
+        private final BlockingQueue<List<?>> in;
+        private final StageStats stats;
+        private Iterator<?> chunk = List.of().iterator();
+        private boolean ended;
+        // Rows handed out, to the store or to the drain after it stopped
+        long taken;
+
+        ChunkIterator(BlockingQueue<List<?>> in, StageStats stats) {
+            this.in = in;
+            this.stats = stats;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!chunk.hasNext() && !ended) {
+                long waitStart = System.nanoTime();
+                List<?> next;
+                try {
+                    next = in.take();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("CSV import interrupted", ex);
+                } finally {
+                    stats.inputWaitNanos.addAndGet(System.nanoTime() - waitStart);
+                }
+                if (next == END)
+                    ended = true;
+                else
+                    chunk = next.iterator();
+            }
+            return chunk.hasNext();
+        }
+
+        @Override
+        public Expense next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            taken++;
+            return (Expense) chunk.next();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: CsvImportPipeline <file.csv>");
+            return;
+        }
+        try (ExpenseStore store = new InMemoryExpenseStore()) {
+            store.connect();
+            User user = new User(null, "import", "secret");
+            store.register(user);
+            System.out.println(new CsvImportPipeline().run(Path.of(args[0]), store, store.login(user)));
+        }
+    }
+}
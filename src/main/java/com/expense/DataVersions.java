@@ -0,0 +1,42 @@
+package com.expense;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-user change counters, shared by every {@link ExpenseStore} in the
+ * process. Each write that changes a user's expenses bumps that user's
+ * counter; views remember the version they last rendered and skip reloading
+ * while it is unchanged.
+ */
+
+public final class DataVersions {
+
+    private static final Map<Integer, AtomicLong> VERSIONS = new ConcurrentHashMap<>();
+    // Added to every user's version, for changes that span users (archiving, restore)
+    private static final AtomicLong SHARED = new AtomicLong();
+
+    private DataVersions() {
+    }
+
+    public static long current(int userId) {
+        AtomicLong version = VERSIONS.get(userId);
+        return SHARED.get() + (version == null ? 0 : version.get());
+    }
+
+    static void bump(int userId) {
+        VERSIONS.computeIfAbsent(userId, id -> new AtomicLong()).incrementAndGet();
+    }
+
+    // Bumps the version only when a statement actually changed rows
+    static boolean bumpIfChanged(int userId, int changedRows) {
+        if (changedRows > 0)
+            bump(userId);
+        return changedRows > 0;
+    }
+
+    static void bumpAll() {
+        SHARED.incrementAndGet();
+    }
+}
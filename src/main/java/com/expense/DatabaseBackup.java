@@ -0,0 +1,276 @@
+package com.expense;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.sql.*;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+
+/**
+ * Consistent copies of expenses.db taken while the app keeps writing.
+ *
+ * Each backup opens its own connection and runs {@code VACUUM INTO}, which
+ * reads one WAL snapshot and writes a compacted copy; the writer connection
+ * is never touched and is not blocked. Without WAL (the "default"
+ * {@link SqliteProfile}) that one long read would hold off every commit
+ * until the copy is done, so the driver's online backup is used instead: it
+ * copies a few pages per step, lets writers commit in between, and starts
+ * over when one has. The copy is written under a
+ * temporary name and renamed when complete, so a backup file is never torn.
+ * Backups can run on a schedule, keeping the newest few and deleting older
+ * ones. Restore is {@link DatabaseHandler#restoreFrom}.
+ *
+ * Archive year files (see {@link ExpenseArchive}) are not included.
+ *
+ * Run: mvn -q compile exec:java -Dexec.mainClass=com.expense.DatabaseBackup -Dexec.args="backup"
+ * (arguments: backup, list, or restore with a backup file)
+ */
+
+public class DatabaseBackup implements AutoCloseable {
+
+    public static final String FILE_PREFIX = "expenses-backup-";
+    public static final int DEFAULT_KEEP = 7;
+
+    private static final DateTimeFormatter STAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private final Path source;
+    private final Path directory;
+    private final int keep;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Backs up expenses.db into {@code expense.backup.dir} (default
+     * "backups"), keeping {@code expense.backup.keep} files (default 7).
+     */
+    public DatabaseBackup() {
+        this(Path.of(DatabaseHandler.DATABASE_FILE),
+                Path.of(System.getProperty("expense.backup.dir", "backups")),
+                Integer.getInteger("expense.backup.keep", DEFAULT_KEEP));
+    }
+
+    public DatabaseBackup(Path source, Path directory, int keep) {
+        if (keep < 1)
+            throw new IllegalArgumentException("Must keep at least one backup");
+        this.source = source;
+        this.directory = directory;
+        this.keep = keep;
+    }
+
+    /**
+     * One finished backup.
+     *
+     * @param nanos Wall time of the copy
+     */
+    public record Result(Path file, long bytes, long nanos) {
+
+        public double seconds() {
+            return nanos / 1e9;
+        }
+
+        public double mebibytesPerSecond() {
+            return nanos == 0 ? 0 : bytes / 1048576.0 / seconds();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %.1f MiB in %.2f s (%.1f MiB/s)",
+                    file.getFileName(), bytes / 1048576.0, seconds(), mebibytesPerSecond());
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    // ===== Backup =====
+
+    /**
+     * Copies the database into a new timestamped file, then deletes all but
+     * the newest {@code keep} backups. Runs on the calling thread.
+     */
+    public Result backupNow() throws SQLException, IOException {
+        Files.createDirectories(directory);
+        Path target = directory.resolve(FILE_PREFIX + LocalDateTime.now().format(STAMP) + ".db");
+        Path partial = target.resolveSibling(target.getFileName() + ".part");
+        Files.deleteIfExists(partial);
+
+        long start = System.nanoTime();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + source);
+                Statement stmt = connection.createStatement()) {
+            stmt.execute("PRAGMA busy_timeout = 5000");
+            if (isWal(stmt)) {
+                try (PreparedStatement vacuum = connection.prepareStatement("VACUUM INTO ?")) {
+                    vacuum.setString(1, partial.toAbsolutePath().toString());
+                    vacuum.execute();
+                }
+            } else {
+                stmt.executeUpdate("backup to '" + partial.toAbsolutePath() + "'");
+            }
+        } catch (SQLException e) {
+            Files.deleteIfExists(partial);
+            throw e;
+        }
+        Files.move(partial, target, StandardCopyOption.ATOMIC_MOVE);
+
+        Result result = new Result(target, Files.size(target), System.nanoTime() - start);
+        rotate();
+        return result;
+    }
+
+    private static boolean isWal(Statement stmt) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("PRAGMA journal_mode")) {
+            return rs.next() && rs.getString(1).equalsIgnoreCase("wal");
+        }
+    }
+
+    /**
+     * Backs up in the background every {@code interval}, first after one
+     * interval. Failures are logged and the schedule continues.
+     */
+    public synchronized void scheduleEvery(Duration interval) {
+        if (scheduler != null)
+            throw new IllegalStateException("Backups are already scheduled");
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread t = new Thread(runnable, "db-backup");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        long millis = interval.toMillis();
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                System.out.println("Backup " + backupNow());
+            } catch (SQLException | IOException e) {
+                System.err.println("Scheduled backup failed: " + e.getMessage());
+            }
+        }, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs one backup on a new background thread. The future completes on
+     * {@code callbackExecutor}, e.g. {@code Platform::runLater}.
+     */
+    public CompletableFuture<Result> backupAsync(Executor callbackExecutor) {
+        CompletableFuture<Result> delivered = new CompletableFuture<>();
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return backupNow();
+            } catch (SQLException | IOException e) {
+                throw new CompletionException(e);
+            }
+        }, runnable -> {
+            Thread t = new Thread(runnable, "db-backup-now");
+            t.setDaemon(true);
+            t.start();
+        }).whenCompleteAsync((result, error) -> {
+            if (error != null)
+                delivered.completeExceptionally(error);
+            else
+                delivered.complete(result);
+        }, callbackExecutor);
+        return delivered;
+    }
+
+    /**
+     * @return Finished backups, newest first
+     */
+    public List<Path> list() {
+        if (!Files.isDirectory(directory))
+            return List.of();
+
+        try (Stream<Path> files = Files.list(directory)) {
+            // Timestamped names sort chronologically
+            return files.filter(f -> {
+                String name = f.getFileName().toString();
+                return name.startsWith(FILE_PREFIX) && name.endsWith(".db");
+            }).sorted(Comparator.reverseOrder()).toList();
+        } catch (IOException e) {
+            System.err.println("Listing backups failed: " + e.getMessage());
+            return List.of();
+        }
+    }
+
+    private void rotate() {
+        List<Path> backups = list();
+        for (Path old : backups.subList(Math.min(keep, backups.size()), backups.size())) {
+            try {
+                Files.deleteIfExists(old);
+            } catch (IOException e) {
+                System.err.println("Deleting old backup " + old + " failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Checks that a file is an intact SQLite database holding expenses.
+     */
+    public static void verify(Path file) throws SQLException {
+        if (!Files.isRegularFile(file))
+            throw new SQLException("No such backup: " + file);
+
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.toAbsolutePath());
+                Statement stmt = connection.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("PRAGMA quick_check")) {
+                String status = rs.next() ? rs.getString(1) : "no result";
+                if (!status.equals("ok"))
+                    throw new SQLException("Backup " + file + " is damaged: " + status);
+            }
+            try (ResultSet rs = stmt.executeQuery(
+                    "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = 'expenses'")) {
+                if (!rs.next())
+                    throw new SQLException("Backup " + file + " has no expenses table");
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    public static void main(String[] args) {
+        String command = args.length > 0 ? args[0] : "backup";
+        if (!List.of("backup", "list", "restore").contains(command) || (command.equals("restore") && args.length < 2)) {
+            System.err.println("Usage: DatabaseBackup [backup | list | restore <file>]");
+            System.exit(2);
+        }
+
+        DatabaseBackup backup = new DatabaseBackup();
+        int status = 0;
+
+        switch (command) {
+            case "list" -> backup.list().forEach(System.out::println);
+            case "backup" -> {
+                try {
+                    System.out.println("Backup " + backup.backupNow());
+                } catch (SQLException | IOException e) {
+                    System.err.println("Backup failed: " + e.getMessage());
+                    status = 1;
+                }
+            }
+            default -> {
+                DatabaseHandler db = new DatabaseHandler();
+                try {
+                    db.connect();
+                    db.restoreFrom(Path.of(args[1]));
+                } catch (SQLException e) {
+                    System.err.println("Restore failed: " + e.getMessage());
+                    status = 1;
+                } finally {
+                    db.close();
+                }
+            }
+        }
+
+        System.exit(status);
+    }
+}
@@ -1,139 +1,297 @@
 package com.expense;
 
+import java.nio.file.Path;
 import java.sql.*;
+import java.time.LocalDate;
+import java.time.YearMonth;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-public class DatabaseHandler {
+/**
+ * The SQLite {@link ExpenseStore}. Safe to share between threads.
+ *
+ * Writes run one at a time on a single writer connection. Reads borrow a
+ * connection from a small pool ({@code expense.db.readers}, 4 unless set)
+ * and run in parallel, each on its own WAL snapshot. Each user id also maps
+ * to one of 64 read-write locks: writes hold it for the whole operation
+ * and reads take it shared, so a read never sees half of a write. Bulk
+ * inserts commit in batches and hold the lock and the writer connection
+ * for one batch at a time, so reads and other writes, the importing
+ * user's included, carry on between batches and see the batches
+ * committed so far.
+ */
 
-    private Connection connection;
+public class DatabaseHandler implements ExpenseStore {
 
-    // ================= CATEGORY NORMALIZATION ==================
-    private static final Map<String, String> CATEGORY_MAP = new HashMap<>();
+    // In the working directory
+    public static final String DATABASE_FILE = "expenses.db";
 
-    static {
-        CATEGORY_MAP.put("food", "Food & Drinks");
-        CATEGORY_MAP.put("foods", "Food & Drinks");
-        CATEGORY_MAP.put("drink", "Food & Drinks");
-        CATEGORY_MAP.put("drinks", "Food & Drinks");
-        CATEGORY_MAP.put("meal", "Food & Drinks");
-        CATEGORY_MAP.put("food & drinks", "Food & Drinks");
-        CATEGORY_MAP.put("lunch", "Food & Drinks");
-        CATEGORY_MAP.put("dinner", "Food & Drinks");
+    public static final int DEFAULT_READERS = 4;
 
-        CATEGORY_MAP.put("utilities", "Utilities");
+    // Applied when the profile sets none, so a busy database is waited for rather than failing
+    private static final int DEFAULT_BUSY_TIMEOUT_MS = 5000;
 
-        CATEGORY_MAP.put("care", "Personal Care");
-        CATEGORY_MAP.put("personal care", "Personal Care");
+    private static final int LOCK_STRIPES = 64;
 
-        CATEGORY_MAP.put("entertainment", "Entertainment");
-        CATEGORY_MAP.put("movie", "Entertainment");
-        CATEGORY_MAP.put("cinema", "Entertainment");
+    private final Path file;
+    private final SqliteProfile profile;
 
-        CATEGORY_MAP.put("education", "Education");
-        CATEGORY_MAP.put("school", "Education");
-        CATEGORY_MAP.put("course", "Education");
+    // Replaced only under writeLock
+    private volatile Session writer;
+    private final ReentrantLock writeLock = new ReentrantLock(true);
 
-        CATEGORY_MAP.put("health", "Health");
-        CATEGORY_MAP.put("medical", "Health");
+    private final int maxReaders;
+    private final Semaphore readerPermits;
+    private final BlockingQueue<Session> idleReaders = new LinkedBlockingQueue<>();
+    private final List<Session> openReaders = new CopyOnWriteArrayList<>();
 
-        CATEGORY_MAP.put("transport", "Transportation");
-        CATEGORY_MAP.put("transportation", "Transportation");
-        CATEGORY_MAP.put("taxi", "Transportation");
-        CATEGORY_MAP.put("grab", "Transportation");
+    private final ReadWriteLock[] userLocks = new ReadWriteLock[LOCK_STRIPES];
 
-        CATEGORY_MAP.put("electronic", "Electronics");
-        CATEGORY_MAP.put("electronics", "Electronics");
-        CATEGORY_MAP.put("device", "Electronics");
+    private static final String INSERT_EXPENSE_SQL = "INSERT INTO expenses "
+            + "(date, name, amount_minor, category_id, description, user_id, day, month) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
 
-        CATEGORY_MAP.put("sport", "Sports");
-        CATEGORY_MAP.put("sports", "Sports");
+    private static final String UPDATE_EXPENSE_SQL = "UPDATE expenses SET date=?, name=?, amount_minor=?, "
+            + "category_id=?, description=?, day=?, month=? WHERE id=? AND user_id=?";
+
+    // Rows per transaction for bulk inserts
+    private volatile int batchSize = 1000;
+
+    // Bumped by every restore; category ids loaded before one may be stale
+    private static final AtomicLong RESTORES = new AtomicLong();
+
+    public DatabaseHandler() {
+        this(SqliteProfile.load());
+    }
+
+    public DatabaseHandler(SqliteProfile profile) {
+        this(profile, Path.of(DATABASE_FILE));
+    }
+
+    public DatabaseHandler(SqliteProfile profile, Path file) {
+        this(profile, file, Integer.getInteger("expense.db.readers", DEFAULT_READERS));
+    }
+
+    /**
+     * @param readers Most reader connections open at once; further reads wait
+     */
+    public DatabaseHandler(SqliteProfile profile, Path file, int readers) {
+        if (readers < 1)
+            throw new IllegalArgumentException("Need at least one reader connection");
+        this.profile = profile;
+        this.file = file;
+        this.maxReaders = readers;
+        this.readerPermits = new Semaphore(readers, true);
+        for (int i = 0; i < LOCK_STRIPES; i++)
+            userLocks[i] = new ReentrantReadWriteLock();
     }
 
-    private String normalizeCategory(String input) {
-        if (input == null || input.trim().isEmpty())
-            return "Other";
+    /**
+     * Opens the writer connection and migrates the schema. Does nothing if
+     * already connected, so every thread sharing the handler may call it.
+     */
+    @Override
+    public void connect() throws SQLException {
+        writeLock.lock();
+        try {
+            // Reuse the open database across login sessions
+            if (isConnected())
+                return;
 
-        input = input.toLowerCase().trim();
+            Connection connection = open();
+            System.out.println("Connected to SQLite Database! (profile: " + profile.getName() + ")");
+            System.out.println("SQLite settings: " + SqliteProfile.readActiveSettings(connection));
 
-        if (CATEGORY_MAP.containsKey(input))
-            return CATEGORY_MAP.get(input);
+            int version = SchemaMigrator.migrate(connection);
+            System.out.println("Expenses and Users table ready (schema v" + version + ").");
 
-        // Fuzzy match
-        String bestMatch = null;
-        int bestDistance = Integer.MAX_VALUE;
+            Session session = new Session(connection);
+            loadCategories(session);
 
-        for (String key : CATEGORY_MAP.keySet()) {
-            int dist = levenshteinDistance(input, key);
-            if (dist < bestDistance) {
-                bestDistance = dist;
-                bestMatch = key;
+            SchemaMigrator.verifyIndexUsage(connection);
+            writer = session;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private Connection open() throws SQLException {
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file);
+        try {
+            profile.apply(connection);
+            if (!profile.getSettings().containsKey("busy_timeout")) {
+                try (Statement stmt = connection.createStatement()) {
+                    stmt.execute("PRAGMA busy_timeout = " + DEFAULT_BUSY_TIMEOUT_MS);
+                }
             }
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
         }
+        return connection;
+    }
 
-        if (bestDistance <= 2)
-            return CATEGORY_MAP.get(bestMatch);
+    // ===== Connections and locks =====
 
-        return "Other";
-    }
+    /**
+     * One connection with its compiled statements and category dictionary.
+     * Only one thread uses it at a time: the writer under writeLock, a
+     * reader while borrowed from the pool.
+     */
+    private static final class Session {
+        final Connection connection;
+        // One compiled statement per SQL string, kept for the life of the connection
+        final Map<String, PreparedStatement> statements = new HashMap<>();
+        // Category ids <-> names, mirrored from the categories table
+        final CategoryDictionary categories = new CategoryDictionary();
+        long categoriesLoadedAt = -1;
 
-    // Levenshtein Distance to Map Title to Specific Description
-    private int levenshteinDistance(String a, String b) {
-        int[][] dp = new int[a.length() + 1][b.length() + 1];
+        Session(Connection connection) {
+            this.connection = connection;
+        }
 
-        for (int i = 0; i <= a.length(); i++)
-            dp[i][0] = i;
-        for (int j = 0; j <= b.length(); j++)
-            dp[0][j] = j;
+        void close() {
+            for (PreparedStatement stmt : statements.values()) {
+                try {
+                    stmt.close();
+                } catch (SQLException e) {
+                    System.err.println("Close statement failed: " + e.getMessage());
+                }
+            }
+            statements.clear();
 
-        for (int i = 1; i <= a.length(); i++) {
-            for (int j = 1; j <= b.length(); j++) {
-                if (a.charAt(i - 1) == b.charAt(j - 1))
-                    dp[i][j] = dp[i - 1][j - 1];
-                else
-                    dp[i][j] = 1 + Math.min(dp[i - 1][j - 1], Math.min(dp[i - 1][j], dp[i][j - 1]));
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                System.err.println("Close connection failed: " + e.getMessage());
             }
         }
-        return dp[a.length()][b.length()];
     }
 
-    public void connect() throws SQLException {
-        String url = "jdbc:sqlite:expenses.db";
-        connection = DriverManager.getConnection(url);
+    /**
+     * A session held for one operation, with the locks taken for it.
+     * Closing returns the session and releases the locks.
+     */
+    private final class Lease implements AutoCloseable {
+        final Session session;
+        private final boolean writing;
+        private final List<Lock> held;
 
-        System.out.println("Connected to SQLite Database!");
+        Lease(Session session, boolean writing, List<Lock> held) {
+            this.session = session;
+            this.writing = writing;
+            this.held = held;
+        }
 
-        String userSql = """
-                CREATE TABLE IF NOT EXISTS users (
-                    id INTEGER PRIMARY KEY AUTOINCREMENT,
-                    username TEXT UNIQUE NOT NULL,
-                    password TEXT NOT NULL
-                );
-                """;
+        @Override
+        public void close() {
+            if (writing)
+                writeLock.unlock();
+            else
+                returnReader(session);
+            for (int i = held.size() - 1; i >= 0; i--)
+                held.get(i).unlock();
+        }
+    }
 
-        String expenseSql = """
-                CREATE TABLE IF NOT EXISTS expenses (
-                    id INTEGER PRIMARY KEY AUTOINCREMENT,
-                    date TEXT,
-                    name TEXT,
-                    amount REAL,
-                    category TEXT,
-                    description TEXT,
-                    user_id INTEGER,
-                    FOREIGN KEY(user_id) REFERENCES users(id)
-                );
-                """;
+    private ReadWriteLock userLock(int userId) {
+        return userLocks[Math.floorMod(userId, LOCK_STRIPES)];
+    }
 
-        try (Statement stmt = connection.createStatement()) {
-            stmt.executeUpdate(userSql);
-            stmt.execute(expenseSql);
-            System.out.println("Expenses and Users table ready.");
+    private Lease read(int userId) throws SQLException {
+        return read(List.of(userLock(userId).readLock()));
+    }
+
+    // Locks are always taken user stripes first, in stripe order, then writeLock
+    private Lease read(List<Lock> locks) throws SQLException {
+        locks.forEach(Lock::lock);
+        try {
+            return new Lease(borrowReader(), false, locks);
+        } catch (SQLException | RuntimeException e) {
+            unlockAll(locks);
+            throw e;
+        }
+    }
+
+    private Lease write(int userId) throws SQLException {
+        return write(List.of(userLock(userId).writeLock()));
+    }
+
+    // For changes that span users (archiving, restore): waits out every user's reads and writes
+    private Lease writeAllUsers() throws SQLException {
+        List<Lock> locks = new ArrayList<>();
+        for (ReadWriteLock stripe : userLocks)
+            locks.add(stripe.writeLock());
+        return write(locks);
+    }
+
+    private Lease write(List<Lock> locks) throws SQLException {
+        locks.forEach(Lock::lock);
+        return writeHolding(locks);
+    }
+
+    // For callers that already hold the user locks; releases them if not connected
+    private Lease writeHolding(List<Lock> locks) throws SQLException {
+        writeLock.lock();
+        Session session = writer;
+        if (session == null) {
+            writeLock.unlock();
+            unlockAll(locks);
+            throw new SQLException("Not connected");
+        }
+        return new Lease(session, true, locks);
+    }
+
+    private static void unlockAll(List<Lock> locks) {
+        for (int i = locks.size() - 1; i >= 0; i--)
+            locks.get(i).unlock();
+    }
+
+    private Session borrowReader() throws SQLException {
+        if (writer == null)
+            throw new SQLException("Not connected");
+
+        readerPermits.acquireUninterruptibly();
+        try {
+            // Sessions returned after close() are closed; drop them
+            Session session;
+            while ((session = idleReaders.poll()) != null) {
+                if (!session.connection.isClosed())
+                    return session;
+            }
+
+            session = new Session(open());
+            openReaders.add(session);
+            return session;
+        } catch (SQLException | RuntimeException e) {
+            readerPermits.release();
+            throw e;
         }
     }
 
+    private void returnReader(Session session) {
+        idleReaders.offer(session);
+        readerPermits.release();
+    }
+
     // REGISTER
+    @Override
     public boolean register(User user) {
         String sql = "INSERT INTO users (username, password) VALUES (?, ?)";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Lease lease = write(List.of())) {
+            PreparedStatement stmt = prepare(lease.session, sql);
             stmt.setString(1, user.getUsername());
             stmt.setString(2, user.getPassword());
             stmt.executeUpdate();
@@ -145,14 +303,17 @@ public class DatabaseHandler {
     }
 
     // LOGIN
+    @Override
     public int login(User user) {
         String sql = "SELECT * FROM users WHERE username = ? AND password = ?";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Lease lease = read(List.of())) {
+            PreparedStatement stmt = prepare(lease.session, sql);
             stmt.setString(1, user.getUsername());
             stmt.setString(2, user.getPassword());
-            ResultSet res = stmt.executeQuery();
-            if (res.next())
-                return res.getInt("id");
+            try (ResultSet res = stmt.executeQuery()) {
+                if (res.next())
+                    return res.getInt("id");
+            }
         } catch (SQLException ex) {
             System.err.println("Login failed: " + ex.getMessage());
         }
@@ -160,64 +321,480 @@ public class DatabaseHandler {
     }
 
     // CREATE
+    @Override
     public void saveExpense(Expense e, int userId) {
-        String sql = "INSERT INTO expenses (date, name, amount, category, description, user_id) VALUES (?, ?, ?, ?, ?, ?)";
-
-        String normalizedCategory = normalizeCategory(e.getCategory());
-
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setString(1, e.getDate());
-            stmt.setString(2, e.getName());
-            stmt.setDouble(3, e.getAmount());
-            stmt.setString(4, normalizedCategory);
-            stmt.setString(5, e.getDescription());
-            stmt.setInt(6, userId);
+        try (Lease lease = write(userId)) {
+            PreparedStatement stmt = prepare(lease.session, INSERT_EXPENSE_SQL);
+            bindInsert(lease.session, stmt, e, userId);
             stmt.executeUpdate();
+            e.setId(lastInsertId(lease.session));
+            DataVersions.bump(userId);
         } catch (SQLException ex) {
             System.err.println("Save expense failed: " + ex.getMessage());
         }
     }
 
+    // BULK CREATE
+    /**
+     * Inserts expenses through one reused PreparedStatement, committing every
+     * {@code batchSize} rows in its own transaction instead of once per row.
+     * Each batch is pulled from {@code expenses} first, then written under
+     * the user's lock and the writer connection, which are given up again
+     * before the next batch: a long import never blocks reads for more than
+     * one batch, and a slow iterator never holds a lock.
+     *
+     * @return the number of rows committed
+     */
+    @Override
+    public int saveExpenses(Iterator<Expense> expenses, int userId) {
+        int committed = 0;
+        long start = System.nanoTime();
+
+        List<Expense> batch = new ArrayList<>(batchSize);
+        try {
+            while (true) {
+                batch.clear();
+                while (batch.size() < batchSize && expenses.hasNext())
+                    batch.add(expenses.next());
+                if (batch.isEmpty())
+                    break;
+
+                // Readers may see the batches so far, so cached views are stale after each one
+                try (Lease lease = write(userId)) {
+                    committed += insertBatch(lease.session, batch, userId);
+                    DataVersions.bump(userId);
+                }
+            }
+        } catch (SQLException ex) {
+            System.err.println("Bulk save failed after " + committed + " rows: " + ex.getMessage());
+        }
+
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        System.out.printf("Bulk insert: %d rows in %.2f s (%.0f rows/sec)%n",
+                committed, seconds, seconds > 0 ? committed / seconds : committed);
+        return committed;
+    }
+
+    // Inserts the batch in one transaction; rolls back and rethrows on failure
+    private int insertBatch(Session session, List<Expense> batch, int userId) throws SQLException {
+        Connection connection = session.connection;
+        PreparedStatement stmt = prepare(session, INSERT_EXPENSE_SQL);
+        createCategories(session, batch);
+
+        connection.setAutoCommit(false);
+        try {
+            for (Expense e : batch) {
+                bindInsert(session, stmt, e, userId);
+                stmt.addBatch();
+            }
+
+            stmt.executeBatch();
+            connection.commit();
+            return batch.size();
+        } catch (SQLException ex) {
+            rollback(session);
+            throw ex;
+        } finally {
+            stmt.clearBatch();
+            try {
+                connection.setAutoCommit(true);
+            } catch (SQLException ex) {
+                System.err.println("Restore auto-commit failed: " + ex.getMessage());
+            }
+        }
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("Batch size must be positive");
+        this.batchSize = batchSize;
+    }
+
+    // GROUP COMMIT
+    /** One queued insert (when {@code insert}) or update for {@link #commitGroup}. */
+    record GroupWrite(Expense expense, int userId, boolean insert) {
+    }
+
+    /**
+     * Applies inserts and updates for any number of users in one
+     * transaction, so the whole group pays for a single commit. Ids are set
+     * on inserted expenses. With {@code durable} the commit is synced as
+     * under synchronous=FULL whatever the profile says, so it survives a
+     * power loss and not only a crash of the process.
+     *
+     * Each user's lock is waited for until {@code waitNanos} have passed in
+     * all; the writes of users whose lock is still busy then are left out,
+     * so one long read or bulk insert does not hold up everyone else's.
+     *
+     * @return for each write, in order, whether it changed a row, or null
+     *         when it was left out and has to be retried
+     * @throws SQLException after rolling the whole group back
+     */
+    Boolean[] commitGroup(List<GroupWrite> writes, boolean durable, long waitNanos) throws SQLException {
+        SortedSet<Integer> stripes = new TreeSet<>();
+        for (GroupWrite w : writes)
+            stripes.add(Math.floorMod(w.userId(), LOCK_STRIPES));
+
+        long deadline = System.nanoTime() + waitNanos;
+        List<Lock> locks = new ArrayList<>();
+        Set<Integer> busy = new HashSet<>();
+        for (int stripe : stripes) {
+            Lock lock = userLocks[stripe].writeLock();
+            if (tryLock(lock, deadline - System.nanoTime()))
+                locks.add(lock);
+            else
+                busy.add(stripe);
+        }
+
+        Boolean[] changed = new Boolean[writes.size()];
+        if (locks.isEmpty())
+            return changed;
+
+        List<GroupWrite> included = new ArrayList<>(writes.size());
+        for (GroupWrite w : writes)
+            if (!busy.contains(Math.floorMod(w.userId(), LOCK_STRIPES)))
+                included.add(w);
+
+        try (Lease lease = writeHolding(locks)) {
+            Session session = lease.session;
+            Connection connection = session.connection;
+            List<Expense> expenses = new ArrayList<>(included.size());
+            included.forEach(w -> expenses.add(w.expense()));
+            createCategories(session, expenses);
+
+            int synchronous = durable ? synchronousLevel(connection) : -1;
+            if (durable)
+                setSynchronousLevel(connection, 2);
+
+            connection.setAutoCommit(false);
+            try {
+                PreparedStatement insert = prepare(session, INSERT_EXPENSE_SQL);
+                PreparedStatement update = prepare(session, UPDATE_EXPENSE_SQL);
+                for (int i = 0; i < changed.length; i++) {
+                    GroupWrite w = writes.get(i);
+                    if (busy.contains(Math.floorMod(w.userId(), LOCK_STRIPES)))
+                        continue;
+                    if (w.insert()) {
+                        bindInsert(session, insert, w.expense(), w.userId());
+                        insert.executeUpdate();
+                        w.expense().setId(lastInsertId(session));
+                        changed[i] = true;
+                    } else {
+                        bindUpdate(session, update, w.expense(), w.userId());
+                        changed[i] = update.executeUpdate() > 0;
+                    }
+                }
+                connection.commit();
+            } catch (SQLException ex) {
+                rollback(session);
+                // The rolled back rows were never stored
+                for (GroupWrite w : included)
+                    if (w.insert())
+                        w.expense().setId(null);
+                throw ex;
+            } finally {
+                try {
+                    connection.setAutoCommit(true);
+                    if (durable)
+                        setSynchronousLevel(connection, synchronous);
+                } catch (SQLException ex) {
+                    System.err.println("Restore connection settings failed: " + ex.getMessage());
+                }
+            }
+        }
+
+        Set<Integer> bumped = new HashSet<>();
+        for (int i = 0; i < changed.length; i++) {
+            int userId = writes.get(i).userId();
+            if (Boolean.TRUE.equals(changed[i]) && bumped.add(userId))
+                DataVersions.bump(userId);
+        }
+        return changed;
+    }
+
+    private static boolean tryLock(Lock lock, long nanos) {
+        try {
+            return lock.tryLock(Math.max(0, nanos), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static int synchronousLevel(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+                ResultSet res = stmt.executeQuery("PRAGMA synchronous")) {
+            return res.next() ? res.getInt(1) : 2;
+        }
+    }
+
+    private static void setSynchronousLevel(Connection connection, int level) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("PRAGMA synchronous = " + level);
+        }
+    }
+
     // READ
-    public List<Expense> getAllExpenses(int userId) {
+    /**
+     * Streams a user's expenses from a live ResultSet, reading only the
+     * projected columns. The stream holds an open statement and a reader
+     * connection and must be closed, e.g. with try-with-resources. It reads
+     * one snapshot but does not take the user's lock, so it may be consumed
+     * and closed on any thread.
+     */
+    @Override
+    public Stream<Expense> streamExpenses(int userId, ExpenseFilter filter, Set<ExpenseColumn> columns) {
+        StringBuilder sql = new StringBuilder("SELECT id");
+        for (ExpenseColumn column : columns)
+            sql.append(", ").append(column.sql());
+        sql.append(" FROM expenses WHERE user_id = ?");
+
+        List<Object> params = new ArrayList<>();
+        params.add(userId);
+        if (filter.getFrom() != null) {
+            sql.append(" AND day >= ?");
+            params.add((int) filter.getFrom().toEpochDay());
+        }
+        if (filter.getTo() != null) {
+            sql.append(" AND day <= ?");
+            params.add((int) filter.getTo().toEpochDay());
+        }
+        if (filter.getCategory() != null)
+            sql.append(" AND category_id = ?"); // bound last, below
+
+        // Not from the statement cache: the stream keeps its ResultSet open
+        Lease lease;
+        try {
+            lease = read(List.of());
+        } catch (SQLException ex) {
+            System.err.println("Stream expenses failed: " + ex.getMessage());
+            return Stream.empty();
+        }
+        Session session = lease.session;
+
+        PreparedStatement stmt = null;
+        ResultSet rs;
+        try {
+            stmt = session.connection.prepareStatement(sql.toString());
+            for (int i = 0; i < params.size(); i++)
+                stmt.setObject(i + 1, params.get(i));
+            if (filter.getCategory() != null)
+                stmt.setInt(params.size() + 1, categoryIdOf(session, filter.getCategory()));
+            rs = stmt.executeQuery();
+        } catch (SQLException ex) {
+            System.err.println("Stream expenses failed: " + ex.getMessage());
+            closeQuietly(stmt);
+            lease.close();
+            return Stream.empty();
+        }
+
+        PreparedStatement openStmt = stmt;
+        Spliterator<Expense> rows = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super Expense> action) {
+                try {
+                    if (!rs.next())
+                        return false;
+                    action.accept(mapExpense(session, rs, columns));
+                    return true;
+                } catch (SQLException ex) {
+                    System.err.println("Stream expenses failed: " + ex.getMessage());
+                    return false;
+                }
+            }
+        };
+
+        return StreamSupport.stream(rows, false).onClose(() -> {
+            closeQuietly(openStmt);
+            lease.close();
+        });
+    }
+
+    /**
+     * Returns one page of a user's expenses ordered by (sort column, id).
+     * Paging is keyset-based: pass the last row of the previous page as
+     * {@code after} (null for the first page), so deep pages cost the same as
+     * the first instead of skipping OFFSET rows.
+     */
+    @Override
+    public List<Expense> getExpensePage(int userId, ExpenseSort sort, boolean ascending,
+            Expense after, int pageSize) {
+        List<Expense> page = new ArrayList<>();
+
+        String col = sort.column();
+        String dir = ascending ? "ASC" : "DESC";
+        String cmp = ascending ? ">" : "<";
+
+        StringBuilder sql = new StringBuilder("SELECT e.* FROM expenses e");
+        if (sort == ExpenseSort.CATEGORY)
+            sql.append(" LEFT JOIN categories c ON c.id = e.category_id");
+        sql.append(" WHERE e.user_id = ?");
+        // Null keys sort first, as in ExpenseSort.comparator(), but never compare true,
+        // so a null cursor and the null rows after a non-null one need branches of their own
+        Object key = after == null || sort == ExpenseSort.ID ? null : sort.keyOf(after);
+        if (after != null) {
+            if (sort == ExpenseSort.ID)
+                sql.append(" AND e.id ").append(cmp).append(" ?");
+            else if (key == null)
+                sql.append(ascending
+                        ? " AND ((" + col + " IS NULL AND e.id > ?) OR " + col + " IS NOT NULL)"
+                        : " AND " + col + " IS NULL AND e.id < ?");
+            else
+                sql.append(" AND ((" + col + ", e.id) " + cmp + " (?, ?)")
+                        .append(ascending ? ")" : " OR " + col + " IS NULL)");
+        }
+        sql.append(" ORDER BY ");
+        if (sort != ExpenseSort.ID)
+            sql.append(col).append(' ').append(dir).append(", ");
+        sql.append("e.id ").append(dir).append(" LIMIT ?");
+
+        try (Lease lease = read(userId)) {
+            PreparedStatement stmt = prepare(lease.session, sql.toString());
+            int i = 1;
+            stmt.setInt(i++, userId);
+            if (after != null) {
+                if (key != null)
+                    stmt.setObject(i++, key);
+                stmt.setInt(i++, after.getId());
+            }
+            stmt.setInt(i, pageSize);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    page.add(mapExpense(lease.session, rs));
+                }
+            }
+
+        } catch (SQLException ex) {
+            System.err.println("Load expense page failed: " + ex.getMessage());
+        }
+        return page;
+    }
+
+    /**
+     * Returns a user's expenses dated from {@code from} to {@code to}, both
+     * inclusive, in date order. Served by idx_expenses_user_day.
+     */
+    @Override
+    public List<Expense> getExpensesInRange(int userId, LocalDate from, LocalDate to) {
         List<Expense> list = new ArrayList<>();
-        String sql = "SELECT * FROM expenses WHERE user_id = ?";
+        String sql = "SELECT * FROM expenses WHERE user_id = ? AND day BETWEEN ? AND ? ORDER BY day, id";
 
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Lease lease = read(userId)) {
+            PreparedStatement stmt = prepare(lease.session, sql);
             stmt.setInt(1, userId);
-            ResultSet rs = stmt.executeQuery();
-
-            while (rs.next()) {
-                list.add(new Expense(
-                        rs.getInt("id"),
-                        rs.getString("date"),
-                        rs.getString("name"),
-                        rs.getDouble("amount"),
-                        normalizeCategory(rs.getString("category")),
-                        rs.getString("description")));
+            stmt.setInt(2, (int) from.toEpochDay());
+            stmt.setInt(3, (int) to.toEpochDay());
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    list.add(mapExpense(lease.session, rs));
+                }
             }
+        } catch (SQLException ex) {
+            System.err.println("Get expenses in range failed: " + ex.getMessage());
+        }
+        return list;
+    }
 
+    /**
+     * Returns the total spent, in cents, on each day of the month that has
+     * expenses. Answered from idx_expenses_user_day alone, without reading
+     * the rows themselves.
+     */
+    @Override
+    public Map<LocalDate, Long> getDailyTotals(int userId, YearMonth month) {
+        Map<LocalDate, Long> totals = new TreeMap<>();
+        String sql = """
+                SELECT day, SUM(amount_minor) AS total
+                FROM expenses
+                WHERE user_id = ? AND day BETWEEN ? AND ?
+                GROUP BY day
+                """;
+
+        try (Lease lease = read(userId)) {
+            PreparedStatement stmt = prepare(lease.session, sql);
+            stmt.setInt(1, userId);
+            stmt.setInt(2, (int) month.atDay(1).toEpochDay());
+            stmt.setInt(3, (int) month.atEndOfMonth().toEpochDay());
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    totals.put(LocalDate.ofEpochDay(rs.getInt("day")), rs.getLong("total"));
+                }
+            }
         } catch (SQLException ex) {
-            System.err.println("Load expenses failed: " + ex.getMessage());
+            System.err.println("Get daily totals failed: " + ex.getMessage());
+        }
+        return totals;
+    }
+
+    /**
+     * Full-text search over name and description, best matches first (name
+     * matches weigh more). Every word must match the start of a word in
+     * either column, ignoring case and accents, so "gra mar" finds
+     * "Grab to market".
+     *
+     * @return Up to {@code limit} matching expenses; empty for a blank query
+     */
+    @Override
+    public List<Expense> searchExpenses(int userId, String query, int limit) {
+        List<Expense> list = new ArrayList<>();
+        String match = toMatchQuery(query);
+        if (match.isEmpty())
+            return list;
+
+        String sql = """
+                SELECT e.* FROM expenses_fts
+                JOIN expenses e ON e.id = expenses_fts.rowid
+                WHERE expenses_fts MATCH ? AND e.user_id = ?
+                ORDER BY bm25(expenses_fts, 10.0, 1.0)
+                LIMIT ?
+                """;
+
+        try (Lease lease = read(userId)) {
+            PreparedStatement stmt = prepare(lease.session, sql);
+            stmt.setString(1, match);
+            stmt.setInt(2, userId);
+            stmt.setInt(3, limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    list.add(mapExpense(lease.session, rs));
+                }
+            }
+        } catch (SQLException ex) {
+            System.err.println("Search expenses failed: " + ex.getMessage());
         }
         return list;
     }
 
+    @Override
+    public int countExpenses(int userId) {
+        String sql = "SELECT COUNT(*) FROM expenses WHERE user_id = ?";
+
+        try (Lease lease = read(userId)) {
+            PreparedStatement stmt = prepare(lease.session, sql);
+            stmt.setInt(1, userId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next())
+                    return rs.getInt(1);
+            }
+        } catch (SQLException ex) {
+            System.err.println("Count expenses failed: " + ex.getMessage());
+        }
+        return 0;
+    }
+
     // UPDATE
+    @Override
     public boolean updateExpense(Expense e, int userId) {
-        String sql = "UPDATE expenses SET date=?, name=?, amount=?, category=?, description=? WHERE id=? AND user_id=?";
-
-        String normalizedCategory = normalizeCategory(e.getCategory());
-
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setString(1, e.getDate());
-            stmt.setString(2, e.getName());
-            stmt.setDouble(3, e.getAmount());
-            stmt.setString(4, normalizedCategory);
-            stmt.setString(5, e.getDescription());
-            stmt.setInt(6, e.getId());
-            stmt.setInt(7, userId);
-            return stmt.executeUpdate() > 0;
+        try (Lease lease = write(userId)) {
+            PreparedStatement stmt = prepare(lease.session, UPDATE_EXPENSE_SQL);
+            bindUpdate(lease.session, stmt, e, userId);
+            return DataVersions.bumpIfChanged(userId, stmt.executeUpdate());
         } catch (SQLException ex) {
             System.err.println("Update failed: " + ex.getMessage());
         }
@@ -225,36 +802,167 @@ public class DatabaseHandler {
     }
 
     // DELETE
+    @Override
     public boolean deleteExpense(Expense e, int userId) {
         String sql = "DELETE FROM expenses WHERE id=? AND user_id=?";
 
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Lease lease = write(userId)) {
+            PreparedStatement stmt = prepare(lease.session, sql);
             stmt.setInt(1, e.getId());
             stmt.setInt(2, userId);
-            return stmt.executeUpdate() > 0;
+            return DataVersions.bumpIfChanged(userId, stmt.executeUpdate());
         } catch (SQLException ex) {
             System.err.println("Delete failed: " + ex.getMessage());
         }
         return false;
     }
 
+    // BULK UPDATE / DELETE
+
+    // Binds the statement's own parameters; user_id is bound after them
+    private interface Params {
+        void bind(PreparedStatement stmt, Session session) throws SQLException;
+    }
+
+    private static final String SELECTED_IDS = "id IN (SELECT id FROM temp.selected_ids) AND user_id = ?";
+
+    /**
+     * Deletes the user's expenses with the given ids in one transaction.
+     *
+     * @return The number of rows deleted
+     */
+    @Override
+    public int deleteExpenses(Collection<Integer> ids, int userId) {
+        return updateSelected("Bulk delete", ids, userId,
+                "DELETE FROM expenses WHERE " + SELECTED_IDS, (stmt, session) -> {
+                });
+    }
+
+    /**
+     * Moves the user's expenses with the given ids to one category, in one
+     * transaction.
+     *
+     * @return The number of rows changed
+     */
+    @Override
+    public int recategorize(Collection<Integer> ids, String category, int userId) {
+        if (ids.isEmpty())
+            return 0;
+
+        // Created and committed first, so the transaction below never creates a category
+        int categoryId;
+        try (Lease lease = write(List.of())) {
+            categoryId = categoryIdFor(lease.session, category);
+        } catch (SQLException ex) {
+            System.err.println("Recategorize failed: " + ex.getMessage());
+            return 0;
+        }
+
+        return updateSelected("Recategorize", ids, userId,
+                "UPDATE expenses SET category_id = ? WHERE " + SELECTED_IDS,
+                (stmt, session) -> stmt.setInt(1, categoryId));
+    }
+
+    /**
+     * Moves the dates of the user's expenses with the given ids by
+     * {@code days} (negative for earlier), in one transaction. Rows without
+     * a valid date are left alone.
+     *
+     * @return The number of rows changed
+     */
+    @Override
+    public int shiftDates(Collection<Integer> ids, int days, int userId) {
+        String sql = """
+                UPDATE expenses
+                SET date = date(date, ?), day = day + ?,
+                    month = CAST(strftime('%Y%m', date(date, ?)) AS INTEGER)
+                WHERE day IS NOT NULL AND """ + SELECTED_IDS;
+
+        String modifier = (days < 0 ? "" : "+") + days + " days";
+        return updateSelected("Shift dates", ids, userId, sql, (stmt, session) -> {
+            stmt.setString(1, modifier);
+            stmt.setInt(2, days);
+            stmt.setString(3, modifier);
+        });
+    }
+
+    /**
+     * Loads the ids into a temp table and runs one statement against them,
+     * all in a single transaction, so 10k ids cost one statement rather
+     * than 10k round trips.
+     */
+    private int updateSelected(String operation, Collection<Integer> ids, int userId, String sql, Params params) {
+        if (ids.isEmpty())
+            return 0;
+
+        Lease lease;
+        try {
+            lease = write(userId);
+        } catch (SQLException ex) {
+            System.err.println(operation + " failed: " + ex.getMessage());
+            return 0;
+        }
+        Session session = lease.session;
+        Connection connection = session.connection;
+
+        int changed = 0;
+        try {
+            connection.setAutoCommit(false);
+            try (Statement ddl = connection.createStatement()) {
+                ddl.execute("CREATE TEMP TABLE IF NOT EXISTS selected_ids (id INTEGER PRIMARY KEY)");
+                ddl.execute("DELETE FROM temp.selected_ids");
+            }
+
+            PreparedStatement insert = prepare(session, "INSERT OR IGNORE INTO temp.selected_ids (id) VALUES (?)");
+            try {
+                for (int id : ids) {
+                    insert.setInt(1, id);
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            } finally {
+                insert.clearBatch();
+            }
+
+            PreparedStatement stmt = prepare(session, sql);
+            params.bind(stmt, session);
+            stmt.setInt(stmt.getParameterMetaData().getParameterCount(), userId);
+            changed = stmt.executeUpdate();
+
+            try (Statement ddl = connection.createStatement()) {
+                ddl.execute("DELETE FROM temp.selected_ids");
+            }
+            connection.commit();
+        } catch (SQLException ex) {
+            System.err.println(operation + " failed: " + ex.getMessage());
+            changed = 0;
+            rollback(session);
+        } finally {
+            try {
+                connection.setAutoCommit(true);
+            } catch (SQLException ex) {
+                System.err.println("Restore auto-commit failed: " + ex.getMessage());
+            }
+            lease.close();
+        }
+
+        DataVersions.bumpIfChanged(userId, changed);
+        return changed;
+    }
+
     // GET BY ID
+    @Override
     public Expense getExpenseById(int id, int userId) {
         String sql = "SELECT * FROM expenses WHERE id=? AND user_id=?";
 
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Lease lease = read(userId)) {
+            PreparedStatement stmt = prepare(lease.session, sql);
             stmt.setInt(1, id);
             stmt.setInt(2, userId);
-            ResultSet rs = stmt.executeQuery();
-
-            if (rs.next()) {
-                return new Expense(
-                        rs.getInt("id"),
-                        rs.getString("date"),
-                        rs.getString("name"),
-                        rs.getDouble("amount"),
-                        normalizeCategory(rs.getString("category")),
-                        rs.getString("description"));
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return mapExpense(lease.session, rs);
+                }
             }
 
         } catch (SQLException ex) {
@@ -263,25 +971,354 @@ public class DatabaseHandler {
         return null;
     }
 
+    @Override
     public void deleteAllExpenses(int userId) {
         String sql = "DELETE FROM expenses WHERE user_id = ?";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Lease lease = write(userId)) {
+            PreparedStatement stmt = prepare(lease.session, sql);
             stmt.setInt(1, userId);
-            stmt.executeUpdate();
+            DataVersions.bumpIfChanged(userId, stmt.executeUpdate());
         } catch (SQLException e) {
             System.err.println("deleteAllExpenses failed: " + e.getMessage());
         }
     }
 
+    // Archive year files belong to this database file, next to it
+    public ExpenseArchive archive() {
+        return ExpenseArchive.of(file);
+    }
+
     public void resetAutoIncrement() {
-        try (Statement stmt = connection.createStatement()) {
+        // Archived rows keep their ids; restarting the sequence would reuse them
+        if (!archive().years().isEmpty())
+            return;
+
+        try (Lease lease = write(List.of());
+                Statement stmt = lease.session.connection.createStatement()) {
             stmt.execute("DELETE FROM sqlite_sequence WHERE name='expenses'");
         } catch (SQLException e) {
             System.err.println("resetAutoIncrement failed: " + e.getMessage());
         }
     }
 
+    /**
+     * Recomputes the report rollup tables from expenses in one transaction.
+     * The triggers keep them exact; this is for repair after manual edits.
+     */
+    public boolean rebuildRollups() {
+        Lease lease;
+        try {
+            lease = write(List.of());
+        } catch (SQLException e) {
+            System.err.println("rebuildRollups failed: " + e.getMessage());
+            return false;
+        }
+        Connection connection = lease.session.connection;
+
+        try {
+            connection.setAutoCommit(false);
+            ExpenseRollups.rebuild(connection);
+            connection.commit();
+            return true;
+        } catch (SQLException e) {
+            System.err.println("rebuildRollups failed: " + e.getMessage());
+            rollback(lease.session);
+            return false;
+        } finally {
+            try {
+                connection.setAutoCommit(true);
+            } catch (SQLException e) {
+                System.err.println("Restore auto-commit failed: " + e.getMessage());
+            }
+            lease.close();
+        }
+    }
+
+    /**
+     * @return Mismatched rows per rollup table (all zeros when exact), or an
+     *         empty map if the check could not run
+     */
+    public Map<String, Integer> checkRollups() {
+        try (Lease lease = read(List.of())) {
+            return ExpenseRollups.check(lease.session.connection);
+        } catch (SQLException e) {
+            System.err.println("checkRollups failed: " + e.getMessage());
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * Moves expenses dated before {@code cutoff}, for every user, into
+     * per-year archive files; see {@link ExpenseArchive}. Waits for every
+     * user's reads and writes to finish, and holds them off meanwhile.
+     *
+     * @return Rows moved per year, oldest first
+     */
+    public SortedMap<Integer, Integer> archiveBefore(LocalDate cutoff) throws SQLException {
+        SortedMap<Integer, Integer> moved;
+        try (Lease lease = writeAllUsers()) {
+            moved = archive().archiveBefore(lease.session.connection, cutoff);
+        }
+        if (!moved.isEmpty())
+            DataVersions.bumpAll();
+        return moved;
+    }
+
+    /**
+     * Replaces the live database with a backup, page by page through SQLite's
+     * backup API on the writer connection, then migrates it to the current
+     * schema. Every user's reads and writes wait meanwhile; reader
+     * connections see the restored data on their next read.
+     */
+    public void restoreFrom(Path backup) throws SQLException {
+        DatabaseBackup.verify(backup);
+
+        String file = backup.toAbsolutePath().toString();
+        if (file.contains("'"))
+            throw new SQLException("Backup path must not contain a quote: " + file);
+
+        long start = System.nanoTime();
+        try (Lease lease = writeAllUsers()) {
+            Connection connection = lease.session.connection;
+            try (Statement stmt = connection.createStatement()) {
+                stmt.executeUpdate("restore from '" + file + "'");
+            }
+            SchemaMigrator.migrate(connection);
+
+            RESTORES.incrementAndGet();
+            loadCategories(lease.session);
+        }
+        DataVersions.bumpAll();
+        System.out.printf("Restored %s in %.2f s%n", file, (System.nanoTime() - start) / 1e9);
+    }
+
+    @Override
+    public ReportResult generateReport(int userId, LocalDate from, LocalDate to, boolean includeArchive) {
+        try (Lease lease = read(userId)) {
+            return new ReportGenerator(lease.session.connection, archive()).generate(userId, from, to,
+                    includeArchive);
+        } catch (SQLException e) {
+            System.err.println("Report failed: " + e.getMessage());
+            return ReportResult.empty(userId, from, to);
+        }
+    }
+
+    public Path getDatabaseFile() {
+        return file;
+    }
+
+    /**
+     * The writer connection, for single-threaded tools. Statements run on it
+     * directly bypass this handler's locking.
+     */
     public Connection getConnection() {
-        return connection;
+        Session session = writer;
+        return session == null ? null : session.connection;
+    }
+
+    public SqliteProfile getProfile() {
+        return profile;
+    }
+
+    public int getMaxReaders() {
+        return maxReaders;
+    }
+
+    /**
+     * Returns the PRAGMA values in effect on a reader connection, for
+     * diagnostics. Empty if not connected.
+     */
+    public Map<String, String> getActiveSettings() {
+        if (!isConnected())
+            return Collections.emptyMap();
+
+        try (Lease lease = read(List.of())) {
+            return SqliteProfile.readActiveSettings(lease.session.connection);
+        } catch (SQLException e) {
+            System.err.println("Read settings failed: " + e.getMessage());
+            return Collections.emptyMap();
+        }
+    }
+
+    public boolean isConnected() {
+        Session session = writer;
+        try {
+            return session != null && !session.connection.isClosed();
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Closes every connection with its cached statements, waiting for the
+     * write in progress. Safe to call more than once; a later
+     * {@link #connect()} opens fresh connections.
+     */
+    @Override
+    public void close() {
+        writeLock.lock();
+        try {
+            idleReaders.clear();
+            openReaders.forEach(Session::close);
+            openReaders.clear();
+
+            if (writer != null) {
+                writer.close();
+                writer = null;
+                System.out.println("Disconnected from SQLite Database.");
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Rowid of this connection's last INSERT; trigger inserts do not change it
+    private int lastInsertId(Session session) throws SQLException {
+        try (ResultSet rs = prepare(session, "SELECT last_insert_rowid()").executeQuery()) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    // Returns the cached statement for this SQL, compiling it on first use
+    private PreparedStatement prepare(Session session, String sql) throws SQLException {
+        PreparedStatement stmt = session.statements.get(sql);
+        if (stmt == null || stmt.isClosed()) {
+            stmt = session.connection.prepareStatement(sql);
+            session.statements.put(sql, stmt);
+        } else {
+            stmt.clearParameters();
+        }
+        return stmt;
+    }
+
+    private Expense mapExpense(Session session, ResultSet rs) throws SQLException {
+        return mapExpense(session, rs, ExpenseColumn.ALL);
+    }
+
+    // Reads only the projected columns; the rest stay unset
+    private Expense mapExpense(Session session, ResultSet rs, Set<ExpenseColumn> columns) throws SQLException {
+        Expense e = new Expense(rs.getInt("id"));
+
+        if (columns.contains(ExpenseColumn.DATE)) {
+            e.setDate(rs.getString("date"));
+            int day = rs.getInt("day");
+            if (!rs.wasNull())
+                e.setDayKeys(day, rs.getInt("month"));
+        }
+        if (columns.contains(ExpenseColumn.NAME))
+            e.setName(rs.getString("name"));
+        if (columns.contains(ExpenseColumn.AMOUNT))
+            e.setAmountMinor(rs.getLong("amount_minor"));
+        if (columns.contains(ExpenseColumn.CATEGORY))
+            e.setCategory(categoryName(session, rs.getInt("category_id")));
+        if (columns.contains(ExpenseColumn.DESCRIPTION))
+            e.setDescription(rs.getString("description"));
+
+        return e;
+    }
+
+    // Closing a statement also closes its open ResultSet
+    private void closeQuietly(Statement stmt) {
+        if (stmt == null)
+            return;
+        try {
+            stmt.close();
+        } catch (SQLException e) {
+            System.err.println("Close statement failed: " + e.getMessage());
+        }
+    }
+
+    // Categories added through another connection are picked up on first sight
+    private String categoryName(Session session, int id) throws SQLException {
+        if (session.categoriesLoadedAt != RESTORES.get() || !session.categories.contains(id))
+            loadCategories(session);
+        return session.categories.nameOf(id);
+    }
+
+    private int categoryIdOf(Session session, String name) throws SQLException {
+        if (session.categoriesLoadedAt != RESTORES.get() || session.categories.idOf(name) < 0)
+            loadCategories(session);
+        return session.categories.idOf(name);
+    }
+
+    private void loadCategories(Session session) throws SQLException {
+        session.categoriesLoadedAt = RESTORES.get();
+        session.categories.load(session.connection);
+    }
+
+    // Quotes each word so FTS5 syntax in user input is taken literally, as a prefix
+    private static String toMatchQuery(String query) {
+        if (query == null)
+            return "";
+
+        StringJoiner terms = new StringJoiner(" ");
+        for (String word : query.trim().split("\\s+")) {
+            String term = word.replace("\"", "");
+            if (!term.isEmpty())
+                terms.add("\"" + term + "\"*");
+        }
+        return terms.toString();
+    }
+
+    // Writer only: creates the category if it is new
+    /**
+     * Creates any categories of {@code expenses} the dictionary lacks, each
+     * committed on its own. Call it before a transaction begins: a category
+     * created inside one would stay cached after a rollback removed its row,
+     * and SQLite could hand the same id to the next new category.
+     */
+    private void createCategories(Session session, Collection<Expense> expenses) throws SQLException {
+        for (Expense e : expenses)
+            categoryIdFor(session, e.getCategory());
+    }
+
+    // Rolls back and drops cached category ids, in case the transaction created a category after all
+    private void rollback(Session session) {
+        session.categoriesLoadedAt = -1;
+        try {
+            session.connection.rollback();
+        } catch (SQLException ex) {
+            System.err.println("Rollback failed: " + ex.getMessage());
+        }
+    }
+
+    private int categoryIdFor(Session session, String rawCategory) throws SQLException {
+        if (session.categoriesLoadedAt != RESTORES.get())
+            loadCategories(session);
+        return session.categories.getOrCreate(session.connection,
+                CategoryNormalizer.shared().normalize(rawCategory));
+    }
+
+    // Binds the epoch day and yyyymm month key at index and index + 1
+    private void bindInsert(Session session, PreparedStatement stmt, Expense e, int userId) throws SQLException {
+        stmt.setString(1, e.getDate());
+        stmt.setString(2, e.getName());
+        stmt.setLong(3, e.getAmountMinor());
+        stmt.setInt(4, categoryIdFor(session, e.getCategory()));
+        stmt.setString(5, e.getDescription());
+        stmt.setInt(6, userId);
+        bindDayKeys(stmt, 7, e);
+    }
+
+    private void bindUpdate(Session session, PreparedStatement stmt, Expense e, int userId) throws SQLException {
+        stmt.setString(1, e.getDate());
+        stmt.setString(2, e.getName());
+        stmt.setLong(3, e.getAmountMinor());
+        stmt.setInt(4, categoryIdFor(session, e.getCategory()));
+        stmt.setString(5, e.getDescription());
+        bindDayKeys(stmt, 6, e);
+        stmt.setInt(8, e.getId());
+        stmt.setInt(9, userId);
+    }
+
+    private void bindDayKeys(PreparedStatement stmt, int index, Expense e) throws SQLException {
+        int day = e.getEpochDay();
+        if (day == DateKeys.NONE) {
+            stmt.setNull(index, Types.INTEGER);
+            stmt.setNull(index + 1, Types.INTEGER);
+        } else {
+            stmt.setInt(index, day);
+            stmt.setInt(index + 1, e.getMonthKey());
+        }
     }
 }
@@ -0,0 +1,67 @@
+package com.expense;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Integer keys for expense dates, stored alongside the ISO date text:
+ * the epoch day (days since 1970-01-01) and a month key of the form
+ * {@code yyyymm} (e.g. 202503). Both sort chronologically, so range and
+ * per-month queries become index range scans with no string parsing.
+ */
+
+public final class DateKeys {
+
+    // Marks a date that is missing or not in ISO yyyy-MM-dd form
+    public static final int NONE = Integer.MIN_VALUE;
+
+    private DateKeys() {
+    }
+
+    public static int epochDay(String isoDate) {
+        LocalDate date = parse(isoDate);
+        return date == null ? NONE : (int) date.toEpochDay();
+    }
+
+    public static int monthKey(String isoDate) {
+        LocalDate date = parse(isoDate);
+        return date == null ? NONE : monthKey(date.getYear(), date.getMonthValue());
+    }
+
+    public static int monthKeyOfEpochDay(int epochDay) {
+        if (epochDay == NONE)
+            return NONE;
+        LocalDate date = LocalDate.ofEpochDay(epochDay);
+        return monthKey(date.getYear(), date.getMonthValue());
+    }
+
+    public static int monthKey(int year, int month) {
+        return year * 100 + month;
+    }
+
+    public static int monthKey(YearMonth yearMonth) {
+        return monthKey(yearMonth.getYear(), yearMonth.getMonthValue());
+    }
+
+    public static YearMonth yearMonth(int monthKey) {
+        return YearMonth.of(monthKey / 100, monthKey % 100);
+    }
+
+    // 202503 -> "2025-03"
+    public static String monthLabel(int monthKey) {
+        if (monthKey == NONE)
+            return "Unknown";
+        return String.format("%04d-%02d", monthKey / 100, monthKey % 100);
+    }
+
+    private static LocalDate parse(String isoDate) {
+        if (isoDate == null)
+            return null;
+        try {
+            return LocalDate.parse(isoDate.trim());
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
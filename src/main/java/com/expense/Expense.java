@@ -4,16 +4,25 @@ public class Expense {
     private Integer id;
     private String date;
     private String name;
-    private Double amount;
+    private long amountMinor; // cents
     private String category;
     private String description;
     private Double displayAmount;
 
+    // Integer forms of date, resolved once; see DateKeys
+    private boolean dayKeysResolved;
+    private int epochDay;
+    private int monthKey;
+
     public Expense(Integer id, String date, String name, Double amount, String category, String description) {
+        this(id, date, name, Money.toMinor(amount), category, description);
+    }
+
+    public Expense(Integer id, String date, String name, long amountMinor, String category, String description) {
         this.id = id;
         this.date = date;
         this.name = name;
-        this.amount = amount;
+        this.amountMinor = amountMinor;
         this.category = category;
         this.description = description;
     }
@@ -22,10 +31,23 @@ public class Expense {
         this.id = id;
     }
 
+    // Field-by-field copy, so a cached expense is never edited in place
+    public Expense(Expense other) {
+        this(other.id, other.date, other.name, other.amountMinor, other.category, other.description);
+        this.displayAmount = other.displayAmount;
+        this.dayKeysResolved = other.dayKeysResolved;
+        this.epochDay = other.epochDay;
+        this.monthKey = other.monthKey;
+    }
+
     public Integer getId() {
         return id;
     }
 
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
     public String getDate() {
         return date;
     }
@@ -34,8 +56,12 @@ public class Expense {
         return name;
     }
 
-    public Double getAmount() {
-        return amount;
+    public double getAmount() {
+        return Money.toMajor(amountMinor);
+    }
+
+    public long getAmountMinor() {
+        return amountMinor;
     }
 
     public String getCategory() {
@@ -50,12 +76,49 @@ public class Expense {
         this.name = name;
     }
 
-    public void setAmount(Double amount) {
-        this.amount = amount;
+    public void setAmount(double amount) {
+        this.amountMinor = Money.toMinor(amount);
+    }
+
+    public void setAmountMinor(long amountMinor) {
+        this.amountMinor = amountMinor;
     }
 
     public void setDate(String date) {
         this.date = date;
+        this.dayKeysResolved = false;
+    }
+
+    /**
+     * @return Days since 1970-01-01, or {@link DateKeys#NONE} if the date is
+     *         not a valid ISO date
+     */
+    public int getEpochDay() {
+        resolveDayKeys();
+        return epochDay;
+    }
+
+    /**
+     * @return The month as yyyymm (e.g. 202503), or {@link DateKeys#NONE}
+     */
+    public int getMonthKey() {
+        resolveDayKeys();
+        return monthKey;
+    }
+
+    // Used when the keys were read from the database, so date is never parsed
+    void setDayKeys(int epochDay, int monthKey) {
+        this.epochDay = epochDay;
+        this.monthKey = monthKey;
+        this.dayKeysResolved = true;
+    }
+
+    private void resolveDayKeys() {
+        if (dayKeysResolved)
+            return;
+        epochDay = DateKeys.epochDay(date);
+        monthKey = DateKeys.monthKeyOfEpochDay(epochDay);
+        dayKeysResolved = true;
     }
 
     public void setCategory(String category) {
@@ -67,7 +130,7 @@ public class Expense {
     }
 
     public Double getDisplayAmount() {
-        return displayAmount != null ? displayAmount : amount;
+        return displayAmount != null ? displayAmount : getAmount();
     }
 
     public void setDisplayAmount(Double value) {
@@ -0,0 +1,359 @@
+package com.expense;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Moves old expenses out of expenses.db into one SQLite file per year
+ * (expenses-archive-2019.db, ...), so the hot table and its indexes stay
+ * small. Archived rows keep their ids. Year files sit next to their
+ * database and are named after it, so each database has its own archive.
+ *
+ * Archived years are read by attaching their files to a connection, which
+ * also creates the temp view {@value #VIEW} over their rows. SQLite
+ * attaches at most {@value #MAX_ATTACHED} databases by default, so readers
+ * go through the years in groups of that size (see {@link #attachableGroups}).
+ *
+ * Run: mvn -q compile exec:java -Dexec.mainClass=com.expense.ExpenseArchive -Dexec.args="archive 2024-01-01"
+ * (arguments: list, or archive with an optional cutoff date; the default
+ * cutoff keeps the last {@code expense.archive.months} months, 24 unless set)
+ */
+
+public class ExpenseArchive {
+
+    public static final String FILE_PREFIX = "expenses-archive-";
+    public static final String VIEW = "all_expenses";
+    public static final int DEFAULT_HOT_MONTHS = 24;
+
+    // SQLite's default SQLITE_MAX_ATTACHED
+    public static final int MAX_ATTACHED = 10;
+
+    private static final String COLUMNS = "id, date, name, amount_minor, category_id, description, user_id, day, month";
+
+    private final Path directory;
+    private final String prefix;
+    private final Pattern fileName;
+
+    // Archive files next to expenses.db, in the working directory
+    public ExpenseArchive() {
+        this(Path.of(""));
+    }
+
+    // Archive files of expenses.db in another directory
+    public ExpenseArchive(Path directory) {
+        this(directory, FILE_PREFIX);
+    }
+
+    private ExpenseArchive(Path directory, String prefix) {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.fileName = Pattern.compile(Pattern.quote(prefix) + "(\\d{4})\\.db");
+    }
+
+    /**
+     * The archive of one database file: year files in the same directory,
+     * named after it (expenses.db keeps expenses-archive-2019.db, ...).
+     */
+    public static ExpenseArchive of(Path databaseFile) {
+        Path absolute = databaseFile.toAbsolutePath();
+        String name = absolute.getFileName().toString();
+        String stem = name.endsWith(".db") ? name.substring(0, name.length() - 3) : name;
+        return new ExpenseArchive(absolute.getParent(), stem + "-archive-");
+    }
+
+    /**
+     * First day kept in the hot table when the last {@code hotMonths} months
+     * stay there, counting the current month.
+     */
+    public static LocalDate cutoffKeeping(int hotMonths) {
+        return LocalDate.now().withDayOfMonth(1).minusMonths(hotMonths - 1L);
+    }
+
+    public Path fileFor(int year) {
+        return directory.resolve(prefix + year + ".db");
+    }
+
+    /**
+     * @return Archive files present on disk, by year, oldest first
+     */
+    public SortedMap<Integer, Path> years() {
+        SortedMap<Integer, Path> years = new TreeMap<>();
+        Path dir = directory.toAbsolutePath();
+        if (!Files.isDirectory(dir))
+            return years;
+
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(file -> {
+                Matcher m = fileName.matcher(file.getFileName().toString());
+                if (m.matches())
+                    years.put(Integer.parseInt(m.group(1)), file);
+            });
+        } catch (IOException e) {
+            System.err.println("Listing archive files failed: " + e.getMessage());
+        }
+        return years;
+    }
+
+    // ===== Archiving =====
+
+    /**
+     * Moves every expense dated before {@code cutoff} into its year's file,
+     * creating files as needed. Expenses without a valid date stay in the
+     * hot table. Years are moved one at a time, each attached on its own and
+     * copied and deleted in one transaction, so any number of years fits
+     * under the attach limit. If a crash splits a year's transaction across
+     * files, running the archive again completes the move, since rows are
+     * copied by id with INSERT OR REPLACE.
+     *
+     * Deleting from expenses fires the usual triggers, so the rollup tables
+     * and the search index afterwards cover hot rows only.
+     *
+     * @return Rows moved per year, oldest first
+     */
+    public SortedMap<Integer, Integer> archiveBefore(Connection connection, LocalDate cutoff) throws SQLException {
+        int cutoffDay = (int) cutoff.toEpochDay();
+        SortedMap<Integer, Integer> moved = new TreeMap<>();
+
+        List<Integer> years = new ArrayList<>();
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "SELECT DISTINCT month / 100 FROM expenses WHERE day < ? ORDER BY 1")) {
+            stmt.setInt(1, cutoffDay);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next())
+                    years.add(rs.getInt(1));
+            }
+        }
+        if (years.isEmpty())
+            return moved;
+
+        for (int year : years) {
+            // ATTACH is not allowed inside a transaction
+            List<String> attached = List.of(attach(connection, year));
+            try {
+                createTable(connection, schemaFor(year));
+
+                connection.setAutoCommit(false);
+                try {
+                    int from = (int) LocalDate.of(year, 1, 1).toEpochDay();
+                    int until = Math.min(cutoffDay, (int) LocalDate.of(year + 1, 1, 1).toEpochDay());
+                    moved.put(year, moveRange(connection, schemaFor(year), from, until));
+                    connection.commit();
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            } finally {
+                detach(connection, attached);
+            }
+        }
+
+        return moved;
+    }
+
+    private static int moveRange(Connection connection, String schema, int fromDay, int untilDay)
+            throws SQLException {
+        String copy = "INSERT OR REPLACE INTO " + schema + ".expenses (" + COLUMNS + ") SELECT " + COLUMNS
+                + " FROM main.expenses WHERE day >= ? AND day < ?";
+        String delete = "DELETE FROM main.expenses WHERE day >= ? AND day < ?";
+
+        try (PreparedStatement insert = connection.prepareStatement(copy);
+                PreparedStatement remove = connection.prepareStatement(delete)) {
+            insert.setInt(1, fromDay);
+            insert.setInt(2, untilDay);
+            insert.executeUpdate();
+
+            remove.setInt(1, fromDay);
+            remove.setInt(2, untilDay);
+            return remove.executeUpdate();
+        }
+    }
+
+    // Same columns as expenses, and the index reports use for a user's date range
+    private static void createTable(Connection connection, String schema) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("""
+                    CREATE TABLE IF NOT EXISTS %s.expenses (
+                        id INTEGER PRIMARY KEY,
+                        date TEXT,
+                        name TEXT,
+                        amount_minor INTEGER NOT NULL,
+                        category_id INTEGER,
+                        description TEXT,
+                        user_id INTEGER,
+                        day INTEGER,
+                        month INTEGER
+                    )
+                    """.formatted(schema));
+            stmt.execute("CREATE INDEX IF NOT EXISTS " + schema
+                    + ".idx_archive_user_day ON expenses (user_id, day, amount_minor)");
+        }
+    }
+
+    // ===== Reading =====
+
+    /**
+     * Archived years from {@code fromYear} to {@code toYear} (either may be
+     * null), oldest first, in groups of at most {@value #MAX_ATTACHED}: each
+     * group can be attached at once.
+     */
+    public List<List<Integer>> attachableGroups(Integer fromYear, Integer toYear) {
+        List<List<Integer>> groups = new ArrayList<>();
+        List<Integer> group = new ArrayList<>();
+        for (int year : years().keySet()) {
+            if ((fromYear != null && year < fromYear) || (toYear != null && year > toYear))
+                continue;
+            group.add(year);
+            if (group.size() == MAX_ATTACHED) {
+                groups.add(group);
+                group = new ArrayList<>();
+            }
+        }
+        if (!group.isEmpty())
+            groups.add(group);
+        return groups;
+    }
+
+    /**
+     * Attaches every archive file and (re)creates the temp view
+     * {@value #VIEW} over hot and archived rows. Closing the result drops
+     * the view and detaches the files.
+     *
+     * @throws SQLException If there are more than {@value #MAX_ATTACHED}
+     *                      archived years; read those through
+     *                      {@link #attachableGroups} and {@link #attach}
+     */
+    public Attachment attachAll(Connection connection) throws SQLException {
+        Set<Integer> years = years().keySet();
+        if (years.size() > MAX_ATTACHED)
+            throw new SQLException(years.size() + " archived years exceed the attach limit of " + MAX_ATTACHED);
+        return attach(connection, years, true);
+    }
+
+    /**
+     * Attaches the given archived years (at most {@value #MAX_ATTACHED}) and
+     * (re)creates the temp view {@value #VIEW} over their rows, and over the
+     * hot rows too if {@code includeHot}. Closing the result drops the view
+     * and detaches the files.
+     */
+    public Attachment attach(Connection connection, Collection<Integer> years, boolean includeHot)
+            throws SQLException {
+        if (years.size() > MAX_ATTACHED)
+            throw new SQLException(years.size() + " archived years exceed the attach limit of " + MAX_ATTACHED);
+
+        List<String> attached = new ArrayList<>();
+        try {
+            for (int year : years)
+                attached.add(attach(connection, year));
+
+            List<String> tables = new ArrayList<>();
+            if (includeHot)
+                tables.add("main.expenses");
+            attached.forEach(schema -> tables.add(schema + ".expenses"));
+            if (tables.isEmpty())
+                tables.add("main.expenses WHERE 0");
+
+            StringJoiner view = new StringJoiner(" UNION ALL ", "CREATE TEMP VIEW " + VIEW + " AS ", "");
+            tables.forEach(table -> view.add("SELECT " + COLUMNS + " FROM " + table));
+
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("DROP VIEW IF EXISTS temp." + VIEW);
+                stmt.execute(view.toString());
+            }
+        } catch (SQLException e) {
+            detach(connection, attached);
+            throw e;
+        }
+        return new Attachment(connection, attached);
+    }
+
+    /**
+     * Archive files attached to one connection, with the {@value #VIEW} view.
+     */
+    public static final class Attachment implements AutoCloseable {
+        private final Connection connection;
+        private final List<String> schemas;
+
+        private Attachment(Connection connection, List<String> schemas) {
+            this.connection = connection;
+            this.schemas = schemas;
+        }
+
+        public List<String> getSchemas() {
+            return Collections.unmodifiableList(schemas);
+        }
+
+        @Override
+        public void close() throws SQLException {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("DROP VIEW IF EXISTS temp." + VIEW);
+            } finally {
+                detach(connection, schemas);
+            }
+        }
+    }
+
+    private static String schemaFor(int year) {
+        return "archive_" + year;
+    }
+
+    private String attach(Connection connection, int year) throws SQLException {
+        String schema = schemaFor(year);
+        try (PreparedStatement stmt = connection.prepareStatement("ATTACH DATABASE ? AS " + schema)) {
+            stmt.setString(1, fileFor(year).toString());
+            stmt.execute();
+        }
+        return schema;
+    }
+
+    private static void detach(Connection connection, List<String> schemas) {
+        for (String schema : schemas) {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("DETACH DATABASE " + schema);
+            } catch (SQLException e) {
+                System.err.println("Detach " + schema + " failed: " + e.getMessage());
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        String command = args.length > 0 ? args[0] : "list";
+        if (!command.equals("list") && !command.equals("archive")) {
+            System.err.println("Usage: ExpenseArchive [list | archive [cutoff yyyy-MM-dd]]");
+            System.exit(2);
+        }
+
+        DatabaseHandler db = new DatabaseHandler();
+        ExpenseArchive archive = db.archive();
+        int status = 0;
+
+        if (command.equals("list")) {
+            archive.years().forEach((year, file) -> System.out.println(year + ": " + file));
+        } else {
+            LocalDate cutoff = args.length > 1 ? LocalDate.parse(args[1])
+                    : cutoffKeeping(Integer.getInteger("expense.archive.months", DEFAULT_HOT_MONTHS));
+
+            try {
+                db.connect();
+                SortedMap<Integer, Integer> moved = db.archiveBefore(cutoff);
+                moved.forEach((year, rows) -> System.out.println(year + ": " + rows + " rows archived"));
+                System.out.println("Expenses before " + cutoff + " archived.");
+            } catch (SQLException e) {
+                System.err.println("Archive failed: " + e.getMessage());
+                status = 1;
+            } finally {
+                db.close();
+            }
+        }
+
+        System.exit(status);
+    }
+}
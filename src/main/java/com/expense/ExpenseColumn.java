@@ -0,0 +1,31 @@
+package com.expense;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Expense fields that a streaming query can project. Columns left out are
+ * not read from SQLite and stay unset on the returned Expense objects; the id
+ * is always read.
+ */
+
+public enum ExpenseColumn {
+    DATE("date, day, month"),
+    NAME("name"),
+    AMOUNT("amount_minor"),
+    CATEGORY("category_id"),
+    DESCRIPTION("description");
+
+    public static final Set<ExpenseColumn> ALL = EnumSet.allOf(ExpenseColumn.class);
+
+    private final String sql;
+
+    ExpenseColumn(String sql) {
+        this.sql = sql;
+    }
+
+    // Column list for the SELECT clause
+    public String sql() {
+        return sql;
+    }
+}
@@ -0,0 +1,49 @@
+package com.expense;
+
+import java.time.LocalDate;
+
+/**
+ * Optional restrictions for expense queries: an inclusive date range and a
+ * single category. Instances are immutable; each with* method returns a copy.
+ */
+
+public class ExpenseFilter {
+
+    private static final ExpenseFilter ALL = new ExpenseFilter(null, null, null);
+
+    private final LocalDate from;
+    private final LocalDate to;
+    private final String category;
+
+    private ExpenseFilter(LocalDate from, LocalDate to, String category) {
+        this.from = from;
+        this.to = to;
+        this.category = category;
+    }
+
+    public static ExpenseFilter all() {
+        return ALL;
+    }
+
+    // Either bound may be null for an open-ended range
+    public static ExpenseFilter between(LocalDate from, LocalDate to) {
+        return new ExpenseFilter(from, to, null);
+    }
+
+    // Canonical category name, as stored in the categories table
+    public ExpenseFilter withCategory(String category) {
+        return new ExpenseFilter(from, to, category);
+    }
+
+    public LocalDate getFrom() {
+        return from;
+    }
+
+    public LocalDate getTo() {
+        return to;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+}
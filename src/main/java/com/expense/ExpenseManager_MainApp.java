@@ -2,14 +2,17 @@ package com.expense;// Import SQL
 
 import java.sql.SQLException;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
 
 // Import JavaFX
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.scene.Scene;
 import javafx.scene.chart.*;
 import javafx.scene.control.*;
 import javafx.scene.control.cell.PropertyValueFactory;
+import javafx.scene.input.KeyCode;
 import javafx.scene.layout.*;
 import javafx.stage.Stage;
 import javafx.geometry.Insets;
@@ -20,11 +23,11 @@ import java.time.LocalDate;
 import java.time.format.DateTimeParseException;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.io.FileWriter;
 import java.io.FileOutputStream;
 
-import org.json.JSONObject;
-
 // PDF Export
 import com.lowagie.text.pdf.PdfWriter;
 
@@ -35,6 +38,7 @@ import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 // Robot Animation
 import javafx.animation.Animation;
 import javafx.animation.FadeTransition;
+import javafx.animation.PauseTransition;
 import javafx.animation.TranslateTransition;
 import javafx.util.Duration;
 import javafx.scene.image.Image;
@@ -45,107 +49,49 @@ import javafx.scene.text.Text;
 // Run: mvn -q javafx:run
 public class ExpenseManager_MainApp extends Application {
 
-    private DatabaseHandler dbHandler;
+    private ExpenseStore dbHandler; // users and login; SQLite unless -Dexpense.store=memory
+    private AsyncDatabaseHandler asyncDb; // expense reads/writes, off the FX thread
+    private ExpenseRepository repository; // the user's expenses in memory, written through to asyncDb
+    private DatabaseBackup backups;
     private CSVHandler csvHandler;
     private TableView<Expense> tableView;
     private Integer currentUserId = -1;
     private Button logoutButton;
     private VBox rightSidebar;
 
+    // ===== TABLE PAGING =====
+    private static final int PAGE_SIZE = 200;
+    private static final int PREFETCH_ROWS = 40; // load the next page this close to the end
+    private ExpenseSort tableSort = ExpenseSort.DATE;
+    private boolean tableAscending = false;
+    private boolean allPagesLoaded = false;
+    private boolean pageLoadInFlight = false;
+    private long tableGeneration = 0; // bumped on reload so late pages are dropped
+    private static final int SEARCH_LIMIT = 500;
+    private String tableSearch = ""; // non-empty: the table shows ranked search results
+
+    // ===== DATA VERSIONS =====
+    // DataVersions.current each view last loaded; -1 forces a reload
+    private long tableVersion = -1;
+    private long summaryVersion = -1;
+    private long chartVersion = -1;
+    private long calendarVersion = -1;
+    private List<Expense> chartExpenses = List.of();
+    private SpendingSummary lastSummary;
+    private Runnable renderChart = () -> {
+    };
+
     // ===== CURRENCY =====
     private final CurrencyConverter converter = new CurrencyConverter();
     private String selectedCurrency = "USD";
     private HBox summaryCardBox; // store summary cards for refresh
+    private CalendarPane calendarPane;
 
-    // ===== CATEGORY NORMALIZATION =====
-    private static final Map<String, String> CATEGORY_MAP = new HashMap<>();
-    private static final List<String> CATEGORY_LIST = Arrays.asList(
-            "Food & Drinks", "Utilities", "Personal Care", "Entertainment",
-            "Education", "Health", "Transportation", "Electronics", "Sports", "Food");
-
-    static {
-        CATEGORY_MAP.put("food", "Food & Drinks");
-        CATEGORY_MAP.put("foods", "Food & Drinks");
-        CATEGORY_MAP.put("drink", "Food & Drinks");
-        CATEGORY_MAP.put("drinks", "Food & Drinks");
-        CATEGORY_MAP.put("meal", "Food & Drinks");
-        CATEGORY_MAP.put("food & drinks", "Food & Drinks");
-
-        CATEGORY_MAP.put("utilities", "Utilities");
-
-        CATEGORY_MAP.put("care", "Personal Care");
-        CATEGORY_MAP.put("personal care", "Personal Care");
-
-        CATEGORY_MAP.put("entertainment", "Entertainment");
-        CATEGORY_MAP.put("movie", "Entertainment");
-        CATEGORY_MAP.put("cinema", "Entertainment");
-
-        CATEGORY_MAP.put("education", "Education");
-        CATEGORY_MAP.put("school", "Education");
-        CATEGORY_MAP.put("course", "Education");
-
-        CATEGORY_MAP.put("health", "Health");
-        CATEGORY_MAP.put("helth", "Health");
-        CATEGORY_MAP.put("medical", "Health");
-
-        CATEGORY_MAP.put("transport", "Transportation");
-        CATEGORY_MAP.put("transportation", "Transportation");
-        CATEGORY_MAP.put("taxi", "Transportation");
-        CATEGORY_MAP.put("grab", "Transportation");
-
-        CATEGORY_MAP.put("electronic", "Electronics");
-        CATEGORY_MAP.put("electronics", "Electronics");
-        CATEGORY_MAP.put("device", "Electronics");
-
-        CATEGORY_MAP.put("sport", "Sports");
-        CATEGORY_MAP.put("sports", "Sports");
-    }
-
-    // Normalize user-typed category
-    private String normalizeCategory(String input) {
-        if (input == null || input.trim().isEmpty())
-            return "Other";
-
-        input = input.toLowerCase().trim();
-
-        if (CATEGORY_MAP.containsKey(input))
-            return CATEGORY_MAP.get(input);
-
-        String bestMatch = null;
-        int bestDistance = Integer.MAX_VALUE;
-
-        for (String key : CATEGORY_MAP.keySet()) {
-            int dist = levenshteinDistance(input, key);
-            if (dist < bestDistance) {
-                bestDistance = dist;
-                bestMatch = key;
-            }
-        }
-
-        if (bestDistance <= 2) {
-            return CATEGORY_MAP.get(bestMatch);
-        }
-
-        return "Other";
-    }
-
-    private int levenshteinDistance(String a, String b) {
-        int[][] dp = new int[a.length() + 1][b.length() + 1];
-
-        for (int i = 0; i <= a.length(); i++)
-            dp[i][0] = i;
-        for (int j = 0; j <= b.length(); j++)
-            dp[0][j] = j;
-
-        for (int i = 1; i <= a.length(); i++) {
-            for (int j = 1; j <= b.length(); j++) {
-                if (a.charAt(i - 1) == b.charAt(j - 1))
-                    dp[i][j] = dp[i - 1][j - 1];
-                else
-                    dp[i][j] = 1 + Math.min(dp[i - 1][j - 1], Math.min(dp[i - 1][j], dp[i][j - 1]));
-            }
-        }
-        return dp[a.length()][b.length()];
+    // -Dexpense.store=memory keeps everything in memory for this run; nothing is saved
+    private static ExpenseStore openStore() {
+        if ("memory".equals(System.getProperty("expense.store")))
+            return new InMemoryExpenseStore();
+        return new DatabaseHandler();
     }
 
     // Convert amount from USD to selected currency
@@ -155,7 +101,9 @@ public class ExpenseManager_MainApp extends Application {
 
     @Override
     public void start(Stage primaryStage) {
-        dbHandler = new DatabaseHandler();
+        // Keep the handler (and its open connection) across logout/login
+        if (dbHandler == null)
+            dbHandler = openStore();
         csvHandler = new CSVHandler();
         CSVHandler csvHandler = new CSVHandler();
         logoutButton = new Button("Log out");
@@ -164,19 +112,34 @@ public class ExpenseManager_MainApp extends Application {
 
         try {
             dbHandler.connect();
+            if (asyncDb == null) {
+                // Both stores are thread-safe; every thread shares the one already open
+                ExpenseStore shared = dbHandler;
+                asyncDb = new AsyncDatabaseHandler(() -> shared, AsyncDatabaseHandler.DEFAULT_READERS,
+                        Platform::runLater);
+                asyncDb.connect();
+            }
+            if (backups == null && dbHandler instanceof DatabaseHandler) {
+                backups = new DatabaseBackup();
+                // -Dexpense.backup.hours=N backs up every N hours while the app runs
+                long hours = Long.getLong("expense.backup.hours", 0);
+                if (hours > 0)
+                    backups.scheduleEvery(java.time.Duration.ofHours(hours));
+            }
         } catch (SQLException ex) {
             System.err.println("Database connection error: " + ex.getMessage());
             return;
         }
 
-        ReportGenerator reportGenerator = new ReportGenerator(dbHandler.getConnection());
-
         boolean loggedIn = showLogin();
         if (!loggedIn) {
             System.out.println("User did not login. Exiting.");
             return;
         }
 
+        // -Dexpense.cache.months=N keeps only the latest N months in memory
+        repository = new ExpenseRepository(asyncDb, currentUserId, Integer.getInteger("expense.cache.months", 0));
+
         BorderPane mainLayout = new BorderPane();
 
         // Sidebar
@@ -193,6 +156,7 @@ public class ExpenseManager_MainApp extends Application {
         Button updateButton = new Button("Update Expense");
         Button deleteButton = new Button("Delete Expense");
         Button importButton = new Button("Import CSV");
+        Button exportButton = new Button("Export CSV");
         Button reportButton = new Button("Generate Report");
         reportButton.setPrefWidth(150);
 
@@ -200,14 +164,27 @@ public class ExpenseManager_MainApp extends Application {
         Button clearButton = new Button("Clear All Data");
         clearButton.setPrefWidth(150);
 
-        clearButton.setOnAction(e -> {
-            dbHandler.deleteAllExpenses(currentUserId);
-            dbHandler.resetAutoIncrement();
-            loadData();
-            refreshCurrencyUI();
-        });
-
-        for (Button b : Arrays.asList(createButton, readButton, updateButton, deleteButton, importButton)) {
+        clearButton.setOnAction(e -> repository.deleteAll().thenRun(this::refreshViews));
+
+        // Backups are copied on their own connection; the app keeps running
+        Button backupButton = new Button("Back Up Now");
+        backupButton.setPrefWidth(150);
+        backupButton.setOnAction(e -> backups.backupAsync(Platform::runLater)
+                .thenAccept(result -> showAlert(Alert.AlertType.INFORMATION, "Backup saved.\n" + result))
+                .exceptionally(err -> {
+                    showAlert(Alert.AlertType.ERROR, "Backup failed: " + reason(err));
+                    return null;
+                }));
+
+        Button restoreButton = new Button("Restore Backup");
+        restoreButton.setPrefWidth(150);
+        restoreButton.setOnAction(e -> restoreBackup());
+        // Only SQLite stores have a file to back up
+        backupButton.setDisable(backups == null);
+        restoreButton.setDisable(backups == null);
+
+        for (Button b : Arrays.asList(createButton, readButton, updateButton, deleteButton, importButton,
+                exportButton)) {
             b.setPrefWidth(150);
         }
 
@@ -245,10 +222,11 @@ public class ExpenseManager_MainApp extends Application {
         });
 
         sidebar.getChildren().addAll(title, new Separator(),
-                createButton, readButton, updateButton, deleteButton, importButton,
+                createButton, readButton, updateButton, deleteButton, importButton, exportButton,
                 currencyLabel, currencySelector,
                 reportButton,
                 clearButton,
+                backupButton, restoreButton,
                 darkMode,
                 logoutButton);
 
@@ -285,10 +263,10 @@ public class ExpenseManager_MainApp extends Application {
         chartContainer.setPrefHeight(400);
         chartContainer.getStyleClass().add("chart-container");
 
-        Runnable updateChartUI = () -> {
+        // Draws the last loaded expenses; switching chart type does not re-read them
+        renderChart = () -> {
             chartContainer.getChildren().clear();
-            var data = javafx.collections.FXCollections.observableArrayList(
-                    dbHandler.getAllExpenses(currentUserId));
+            var data = javafx.collections.FXCollections.observableArrayList(chartExpenses);
 
             // Apply currency conversion to expense objects
             for (Expense ex : data) {
@@ -320,9 +298,10 @@ public class ExpenseManager_MainApp extends Application {
             }
         };
 
-        chartSelector.setOnAction(e -> updateChartUI.run());
+        chartSelector.setOnAction(e -> renderChart.run());
 
-        CalendarPane calendarPane = new CalendarPane(dbHandler.getAllExpenses(currentUserId));
+        // Reads its month once refreshViews runs
+        calendarPane = new CalendarPane(repository, this::convert);
 
         rightSidebar.getChildren().addAll(
                 chartTitle,
@@ -331,8 +310,6 @@ public class ExpenseManager_MainApp extends Application {
                 new Separator(),
                 calendarPane);
 
-        updateChartUI.run();
-
         // ============== TABLE + SUMMARY CARDS ==============
         VBox content = new VBox(10);
         content.setPadding(new Insets(15));
@@ -406,42 +383,92 @@ public class ExpenseManager_MainApp extends Application {
 
         tableView.getColumns().addAll(idCol, nameCol, dateCol, amountCol, categoryCol, descCol);
 
-        loadData();
-        summaryCardBox = createSummaryCards();
+        // Sort in the database instead of in memory; only loaded pages are in the table
+        idCol.setUserData(ExpenseSort.ID);
+        nameCol.setUserData(ExpenseSort.NAME);
+        dateCol.setUserData(ExpenseSort.DATE);
+        amountCol.setUserData(ExpenseSort.AMOUNT);
+        categoryCol.setUserData(ExpenseSort.CATEGORY);
+        descCol.setSortable(false);
+
+        tableView.setSortPolicy(tv -> {
+            ExpenseSort sort = ExpenseSort.DATE;
+            boolean ascending = false;
+
+            if (!tv.getSortOrder().isEmpty()) {
+                TableColumn<Expense, ?> column = tv.getSortOrder().get(0);
+                if (column.getUserData() instanceof ExpenseSort s) {
+                    sort = s;
+                    ascending = column.getSortType() == TableColumn.SortType.ASCENDING;
+                }
+            }
+
+            if (sort != tableSort || ascending != tableAscending) {
+                tableSort = sort;
+                tableAscending = ascending;
+                loadData();
+            }
+            return true;
+        });
+        dateCol.setSortType(TableColumn.SortType.DESCENDING);
+        tableView.getSortOrder().add(dateCol);
+
+        // Fetch the next page when a row near the end of the loaded data is rendered
+        tableView.setRowFactory(tv -> new TableRow<>() {
+            @Override
+            public void updateIndex(int index) {
+                super.updateIndex(index);
+                if (index >= 0 && index >= tv.getItems().size() - PREFETCH_ROWS)
+                    requestNextPage();
+            }
+        });
 
-        content.getChildren().addAll(summaryCardBox, contentTitle, tableView);
+        // Multi-row selection; each bulk action is one set-based statement
+        tableView.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+        MenuItem deleteSelected = new MenuItem("Delete Selected");
+        deleteSelected.setOnAction(e -> deleteSelected());
+        MenuItem recategorizeSelected = new MenuItem("Change Category...");
+        recategorizeSelected.setOnAction(e -> recategorizeSelected());
+        MenuItem shiftSelected = new MenuItem("Shift Dates...");
+        shiftSelected.setOnAction(e -> shiftSelectedDates());
+        tableView.setContextMenu(new ContextMenu(deleteSelected, recategorizeSelected, shiftSelected));
+        tableView.setOnKeyPressed(e -> {
+            if (e.getCode() == KeyCode.DELETE)
+                deleteSelected();
+        });
+
+        // Search as you type, once typing pauses
+        TextField searchField = new TextField();
+        searchField.setPromptText("Search name or description");
+        PauseTransition searchDelay = new PauseTransition(Duration.millis(200));
+        searchDelay.setOnFinished(e -> {
+            tableSearch = searchField.getText().trim();
+            loadData();
+        });
+        searchField.textProperty().addListener((obs, oldText, newText) -> searchDelay.playFromStart());
+        tableSearch = "";
+
+        summaryCardBox = new HBox(15);
+        summaryCardBox.setPadding(new Insets(10));
+        lastSummary = null;
+        chartExpenses = List.of();
+        reloadRepository();
+
+        content.getChildren().addAll(summaryCardBox, contentTitle, searchField, tableView);
 
         // ===== ROBOT ANIMATION ZONE =====
         Pane robotPane = createRobotPane();
         content.getChildren().add(robotPane);
 
-        // CRUD Events
-        createButton.setOnAction(e -> {
-            createExpense();
-            loadData();
-            refreshCurrencyUI();
-            updateChartUI.run();
-        });
+        // CRUD Events: the dialogs refresh the views once a change is saved
+        createButton.setOnAction(e -> createExpense());
 
-        readButton.setOnAction(e -> {
-            loadData();
-            refreshCurrencyUI();
-            updateChartUI.run();
-        });
+        // Explicit refresh re-reads everything
+        readButton.setOnAction(e -> reloadRepository());
 
-        updateButton.setOnAction(e -> {
-            updateExpense();
-            loadData();
-            refreshCurrencyUI();
-            updateChartUI.run();
-        });
+        updateButton.setOnAction(e -> updateExpense());
 
-        deleteButton.setOnAction(e -> {
-            deleteExpense();
-            loadData();
-            refreshCurrencyUI();
-            updateChartUI.run();
-        });
+        deleteButton.setOnAction(e -> deleteExpense());
 
         reportButton.setOnAction(e -> showReportWindow());
 
@@ -455,24 +482,53 @@ public class ExpenseManager_MainApp extends Application {
             if (selectedFile == null)
                 return;
 
-            try {
-                List<Expense> imported = csvHandler.readCSV(selectedFile.getAbsolutePath());
+            // Read, parse, validate and insert run as a pipeline; the file is never held in memory
+            repository.importCsv(selectedFile.toPath()).thenAccept(result -> {
+                System.out.println(result);
+
+                refreshViews();
 
-                for (Expense ex : imported) {
-                    ex.setCategory(normalizeCategory(ex.getCategory()));
-                    dbHandler.saveExpense(ex, currentUserId);
+                if (result.failed()) {
+                    showAlert(Alert.AlertType.ERROR, String.format(
+                            "Import failed after %d rows: %d rows could not be saved and the rest of the file "
+                                    + "was skipped.",
+                            result.saved(), result.unsaved()));
+                    return;
                 }
+                showAlert(Alert.AlertType.INFORMATION, String.format(
+                        "Imported %d rows, rejected %d (%.0f rows/sec).",
+                        result.saved(), result.rejected(), result.rowsPerSecond()));
+            }).exceptionally(err -> {
+                err.printStackTrace();
+                showAlert(Alert.AlertType.ERROR, "Failed to import CSV.");
+                return null;
+            });
+        });
 
-                loadData();
-                refreshCurrencyUI();
-                updateChartUI.run();
+        exportButton.setOnAction(e -> {
+            FileChooser chooser = new FileChooser();
+            chooser.setTitle("Export CSV");
+            chooser.getExtensionFilters().add(
+                    new FileChooser.ExtensionFilter("CSV Files", "*.csv"));
 
-                showAlert(Alert.AlertType.INFORMATION, "Imported successfully!");
+            File selectedFile = chooser.showSaveDialog(null);
+            if (selectedFile == null)
+                return;
 
-            } catch (Exception err) {
-                err.printStackTrace();
-                showAlert(Alert.AlertType.ERROR, "Failed to import CSV.");
-            }
+            // Rows go from the ResultSet straight to the file, on a reader thread
+            int userId = currentUserId;
+            asyncDb.read("exportCsv", db -> {
+                try (Stream<Expense> rows = db.streamExpenses(userId, ExpenseFilter.all(), ExpenseColumn.ALL)) {
+                    return csvHandler.writeCSV(selectedFile.getAbsolutePath(), rows);
+                } catch (IOException err) {
+                    throw new UncheckedIOException(err);
+                }
+            }).thenAccept(written -> showAlert(Alert.AlertType.INFORMATION, "Exported " + written + " rows."))
+                    .exceptionally(err -> {
+                        err.printStackTrace();
+                        showAlert(Alert.AlertType.ERROR, "Failed to export CSV.");
+                        return null;
+                    });
         });
 
         mainLayout.setLeft(sidebar);
@@ -486,18 +542,63 @@ public class ExpenseManager_MainApp extends Application {
         primaryStage.show();
     }
 
-    // Refresh UI when switching currency
+    // Refresh UI when switching currency; amounts are reconverted, nothing is re-read
     private void refreshCurrencyUI() {
         for (Expense ex : tableView.getItems()) {
             ex.setDisplayAmount(convert(ex.getAmount()));
         }
         tableView.refresh();
 
-        summaryCardBox.getChildren().setAll(createSummaryCards().getChildren());
+        if (lastSummary != null)
+            summaryCardBox.getChildren().setAll(createSummaryCards(lastSummary).getChildren());
+        renderChart.run();
+        calendarPane.redraw();
+    }
+
+    // Reloads only the views whose data changed since they were last loaded
+    private void refreshViews() {
+        // Something wrote around the repository; its copy is stale
+        if (!repository.isCurrent()) {
+            reloadRepository();
+            return;
+        }
+
+        long version = DataVersions.current(currentUserId);
+
+        if (version != tableVersion)
+            loadData();
+        if (version != summaryVersion)
+            refreshSummaryCards();
+        if (version != chartVersion)
+            refreshChart();
+        if (version != calendarVersion) {
+            calendarVersion = version;
+            calendarPane.refresh();
+        }
+    }
+
+    // Re-reads the user's expenses into memory, then redraws every view
+    private void reloadRepository() {
+        repository.load().thenRun(() -> {
+            invalidateViews();
+            refreshViews();
+        }).exceptionally(err -> {
+            showAlert(Alert.AlertType.ERROR, "Failed to load expenses: " + reason(err));
+            return null;
+        });
+    }
+
+    private void invalidateViews() {
+        tableVersion = -1;
+        summaryVersion = -1;
+        chartVersion = -1;
+        calendarVersion = -1;
+    }
 
-        // === REFRESH CALENDAR ===
-        CalendarPane newCalendar = new CalendarPane(dbHandler.getAllExpenses(currentUserId));
-        rightSidebar.getChildren().set(rightSidebar.getChildren().size() - 1, newCalendar);
+    private void refreshChart() {
+        chartVersion = DataVersions.current(currentUserId);
+        chartExpenses = repository.all();
+        renderChart.run();
     }
 
     // ============= CREATE EXPENSE =============
@@ -527,7 +628,7 @@ public class ExpenseManager_MainApp extends Application {
                 // Basic field validation
                 String name = nameF.getText() == null ? "" : nameF.getText().trim();
                 String dateStr = dateF.getText() == null ? "" : dateF.getText().trim();
-                String categoryNormalized = normalizeCategory(categoryF.getText());
+                String categoryNormalized = CategoryNormalizer.shared().normalize(categoryF.getText());
 
                 if (name.isEmpty()) {
                     showAlert(Alert.AlertType.ERROR, "Name is required.");
@@ -542,8 +643,8 @@ public class ExpenseManager_MainApp extends Application {
                     return;
                 }
 
-                double amount = Double.parseDouble(amountF.getText());
-                if (Double.isNaN(amount) || Double.isInfinite(amount) || amount < 0) {
+                long amountMinor = Money.parseMinor(amountF.getText());
+                if (amountMinor < 0) {
                     showAlert(Alert.AlertType.ERROR, "Amount must be a non-negative number.");
                     return;
                 }
@@ -551,14 +652,17 @@ public class ExpenseManager_MainApp extends Application {
                 Expense ex = new Expense(null,
                         dateStr,
                         name,
-                        amount,
+                        amountMinor,
                         categoryNormalized,
                         descF.getText());
 
-                dbHandler.saveExpense(ex, currentUserId);
-                loadData();
-                refreshCurrencyUI();
-                form.close();
+                repository.save(ex).thenRun(() -> {
+                    refreshViews();
+                    form.close();
+                }).exceptionally(err -> {
+                    showAlert(Alert.AlertType.ERROR, "Save failed: " + reason(err));
+                    return null;
+                });
 
             } catch (NumberFormatException nfe) {
                 showAlert(Alert.AlertType.ERROR, "Amount must be a valid number.");
@@ -592,17 +696,18 @@ public class ExpenseManager_MainApp extends Application {
 
         fetch.setOnAction(e -> {
             try {
-                Expense ex = dbHandler.getExpenseById(Integer.parseInt(idF.getText()), currentUserId);
-                if (ex == null) {
-                    showAlert(Alert.AlertType.ERROR, "Expense not found");
-                    return;
-                }
+                repository.getById(Integer.parseInt(idF.getText())).thenAccept(ex -> {
+                    if (ex == null) {
+                        showAlert(Alert.AlertType.ERROR, "Expense not found");
+                        return;
+                    }
 
-                nameF.setText(ex.getName());
-                dateF.setText(ex.getDate());
-                amountF.setText(String.valueOf(ex.getAmount()));
-                categoryF.setText(ex.getCategory());
-                descF.setText(ex.getDescription());
+                    nameF.setText(ex.getName());
+                    dateF.setText(ex.getDate());
+                    amountF.setText(Money.format(ex.getAmountMinor()));
+                    categoryF.setText(ex.getCategory());
+                    descF.setText(ex.getDescription());
+                });
             } catch (Exception err) {
                 showAlert(Alert.AlertType.ERROR, "Invalid ID");
             }
@@ -612,12 +717,6 @@ public class ExpenseManager_MainApp extends Application {
             try {
                 int id = Integer.parseInt(idF.getText().trim());
 
-                Expense ex = dbHandler.getExpenseById(id, currentUserId);
-                if (ex == null) {
-                    showAlert(Alert.AlertType.ERROR, "Expense not found for ID: " + id);
-                    return;
-                }
-
                 String name = nameF.getText() == null ? "" : nameF.getText().trim();
                 String dateStr = dateF.getText() == null ? "" : dateF.getText().trim();
 
@@ -633,22 +732,40 @@ public class ExpenseManager_MainApp extends Application {
                     return;
                 }
 
-                double amount = Double.parseDouble(amountF.getText().trim());
-                if (Double.isNaN(amount) || Double.isInfinite(amount) || amount < 0) {
+                long amountMinor = Money.parseMinor(amountF.getText());
+                if (amountMinor < 0) {
                     showAlert(Alert.AlertType.ERROR, "Amount must be a non-negative number.");
                     return;
                 }
 
-                ex.setName(name);
-                ex.setDate(dateStr);
-                ex.setAmount(amount);
-                ex.setCategory(normalizeCategory(categoryF.getText()));
-                ex.setDescription(descF.getText());
+                String category = CategoryNormalizer.shared().normalize(categoryF.getText());
+                String description = descF.getText();
 
-                dbHandler.updateExpense(ex, currentUserId);
-                loadData();
-                refreshCurrencyUI();
-                form.close();
+                repository.getById(id).thenAccept(ex -> {
+                    if (ex == null) {
+                        showAlert(Alert.AlertType.ERROR, "Expense not found for ID: " + id);
+                        return;
+                    }
+
+                    ex.setName(name);
+                    ex.setDate(dateStr);
+                    ex.setAmountMinor(amountMinor);
+                    ex.setCategory(category);
+                    ex.setDescription(description);
+
+                    // False when the row is gone or the write failed; either way nothing was saved
+                    repository.update(ex).thenAccept(updated -> {
+                        if (!updated) {
+                            showAlert(Alert.AlertType.ERROR, "Update failed: expense " + id + " was not saved.");
+                            return;
+                        }
+                        refreshViews();
+                        form.close();
+                    }).exceptionally(err -> {
+                        showAlert(Alert.AlertType.ERROR, "Update failed: " + reason(err));
+                        return null;
+                    });
+                });
 
             } catch (NumberFormatException nfe) {
                 showAlert(Alert.AlertType.ERROR, "ID and Amount must be valid numbers.");
@@ -682,15 +799,24 @@ public class ExpenseManager_MainApp extends Application {
         delete.setOnAction(e -> {
             try {
                 int id = Integer.parseInt(idF.getText());
-                Expense ex = dbHandler.getExpenseById(id, currentUserId);
-
-                if (ex == null) {
-                    showAlert(Alert.AlertType.ERROR, "Expense not found");
-                    return;
-                }
+                repository.getById(id).thenAccept(ex -> {
+                    if (ex == null) {
+                        showAlert(Alert.AlertType.ERROR, "Expense not found");
+                        return;
+                    }
 
-                dbHandler.deleteExpense(ex, currentUserId);
-                form.close();
+                    repository.delete(ex).thenAccept(deleted -> {
+                        if (!deleted) {
+                            showAlert(Alert.AlertType.ERROR, "Delete failed: expense " + id + " was not deleted.");
+                            return;
+                        }
+                        refreshViews();
+                        form.close();
+                    }).exceptionally(err -> {
+                        showAlert(Alert.AlertType.ERROR, "Delete failed: " + reason(err));
+                        return null;
+                    });
+                });
 
             } catch (Exception err) {
                 showAlert(Alert.AlertType.ERROR, "Invalid ID");
@@ -704,19 +830,164 @@ public class ExpenseManager_MainApp extends Application {
         form.show();
     }
 
+    // ============= BULK ACTIONS ON SELECTED ROWS =============
+    private List<Integer> selectedIds() {
+        return tableView.getSelectionModel().getSelectedItems().stream()
+                .map(Expense::getId)
+                .toList();
+    }
+
+    private void deleteSelected() {
+        List<Integer> ids = selectedIds();
+        if (ids.isEmpty())
+            return;
+
+        Alert confirm = new Alert(Alert.AlertType.CONFIRMATION, "Delete " + ids.size() + " expenses?",
+                ButtonType.OK, ButtonType.CANCEL);
+        if (confirm.showAndWait().orElse(ButtonType.CANCEL) != ButtonType.OK)
+            return;
+
+        repository.deleteExpenses(ids).thenAccept(deleted -> refreshViews()).exceptionally(err -> {
+            showAlert(Alert.AlertType.ERROR, "Delete failed: " + reason(err));
+            return null;
+        });
+    }
+
+    private void recategorizeSelected() {
+        List<Integer> ids = selectedIds();
+        if (ids.isEmpty())
+            return;
+
+        TextInputDialog dialog = new TextInputDialog();
+        dialog.setTitle("Change Category");
+        dialog.setHeaderText("New category for " + ids.size() + " expenses");
+        dialog.showAndWait().ifPresent(category -> repository.recategorize(ids, category)
+                .thenAccept(changed -> refreshViews())
+                .exceptionally(err -> {
+                    showAlert(Alert.AlertType.ERROR, "Change category failed: " + reason(err));
+                    return null;
+                }));
+    }
+
+    private void shiftSelectedDates() {
+        List<Integer> ids = selectedIds();
+        if (ids.isEmpty())
+            return;
+
+        TextInputDialog dialog = new TextInputDialog("1");
+        dialog.setTitle("Shift Dates");
+        dialog.setHeaderText("Days to move " + ids.size() + " expenses (negative for earlier)");
+        dialog.showAndWait().ifPresent(text -> {
+            int days;
+            try {
+                days = Integer.parseInt(text.trim());
+            } catch (NumberFormatException nfe) {
+                showAlert(Alert.AlertType.ERROR, "Days must be a whole number.");
+                return;
+            }
+
+            repository.shiftDates(ids, days).thenAccept(changed -> refreshViews()).exceptionally(err -> {
+                showAlert(Alert.AlertType.ERROR, "Shift dates failed: " + reason(err));
+                return null;
+            });
+        });
+    }
+
+    // ============= RESTORE =============
+    private void restoreBackup() {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Restore Backup");
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("SQLite Backups", "*.db"));
+        File dir = backups.getDirectory().toFile();
+        if (dir.isDirectory())
+            chooser.setInitialDirectory(dir);
+
+        File selectedFile = chooser.showOpenDialog(null);
+        if (selectedFile == null)
+            return;
+
+        Alert confirm = new Alert(Alert.AlertType.CONFIRMATION,
+                "Replace all current data with " + selectedFile.getName() + "?", ButtonType.OK, ButtonType.CANCEL);
+        if (confirm.showAndWait().orElse(ButtonType.CANCEL) != ButtonType.OK)
+            return;
+
+        asyncDb.restoreFrom(selectedFile.toPath()).thenRun(() -> {
+            refreshViews();
+            showAlert(Alert.AlertType.INFORMATION, "Restored " + selectedFile.getName() + ".");
+        }).exceptionally(err -> {
+            showAlert(Alert.AlertType.ERROR, "Restore failed: " + reason(err));
+            return null;
+        });
+    }
+
+    // Reset the table to the first page of the current sort order
     private void loadData() {
-        List<Expense> list = dbHandler.getAllExpenses(currentUserId);
+        tableVersion = DataVersions.current(currentUserId);
+        tableGeneration++;
+        allPagesLoaded = false;
+        pageLoadInFlight = false;
+        tableView.getItems().clear();
+
+        if (!tableSearch.isEmpty())
+            runSearch();
+        else if (repository.isComplete())
+            showRepositoryRows();
+        else
+            requestNextPage();
+    }
+
+    // Every row is in memory, so sort there instead of paging from the database
+    private void showRepositoryRows() {
+        allPagesLoaded = true;
 
-        // Apply converted currency
-        for (Expense ex : list) {
-            double converted = converter.convertCurrency(ex.getAmount(), "USD", selectedCurrency);
-            ex.setDisplayAmount(converted);
+        List<Expense> rows = repository.sorted(tableSort, tableAscending);
+        for (Expense ex : rows) {
+            ex.setDisplayAmount(convert(ex.getAmount()));
         }
+        tableView.getItems().setAll(rows);
+    }
+
+    // Search results are ranked by relevance and not paged; column sorting does not apply
+    private void runSearch() {
+        allPagesLoaded = true;
+        long generation = tableGeneration;
 
-        tableView.getItems().setAll(list);
+        asyncDb.searchExpenses(currentUserId, tableSearch, SEARCH_LIMIT).thenAccept(results -> {
+            if (generation != tableGeneration)
+                return;
+
+            for (Expense ex : results) {
+                ex.setDisplayAmount(convert(ex.getAmount()));
+            }
+            tableView.getItems().setAll(results);
+        });
+    }
+
+    // Rows are laid out mid-pulse; the page is appended later, when the read completes
+    private void requestNextPage() {
+        if (allPagesLoaded || pageLoadInFlight)
+            return;
+
+        List<Expense> items = tableView.getItems();
+        Expense last = items.isEmpty() ? null : items.get(items.size() - 1);
+        long generation = tableGeneration;
+
+        pageLoadInFlight = true;
+        asyncDb.getExpensePage(currentUserId, tableSort, tableAscending, last, PAGE_SIZE).thenAccept(page -> {
+            // The table was reloaded or re-sorted while this page was read
+            if (generation != tableGeneration)
+                return;
+            pageLoadInFlight = false;
+
+            // Apply converted currency
+            for (Expense ex : page) {
+                double converted = converter.convertCurrency(ex.getAmount(), "USD", selectedCurrency);
+                ex.setDisplayAmount(converted);
+            }
 
-        CalendarPane newCalendar = new CalendarPane(list);
-        rightSidebar.getChildren().set(rightSidebar.getChildren().size() - 1, newCalendar);
+            items.addAll(page);
+            allPagesLoaded = page.size() < PAGE_SIZE;
+        });
     }
 
     // Login
@@ -784,22 +1055,53 @@ public class ExpenseManager_MainApp extends Application {
         reg.show();
     }
 
-    private HBox createSummaryCards() {
-        List<Expense> expenses = dbHandler.getAllExpenses(currentUserId);
+    private record SpendingSummary(long totalMinor, int count, String topCategory) {
+    }
 
-        double total = expenses.stream()
-                .mapToDouble(ex -> convert(ex.getAmount()))
-                .sum();
+    private void refreshSummaryCards() {
+        summaryVersion = DataVersions.current(currentUserId);
+        if (repository.isComplete()) {
+            showSummary(new SpendingSummary(repository.getTotalMinor(), repository.size(),
+                    topCategory(repository.getCategoryTotals())));
+            return;
+        }
 
-        String topCategory = expenses.stream()
-                .collect(Collectors.groupingBy(Expense::getCategory,
-                        Collectors.summingDouble(Expense::getAmount)))
-                .entrySet().stream()
+        // Some months were evicted from memory; total them in the database
+        int userId = currentUserId;
+        asyncDb.read("summaryCards", db -> {
+            // Stream only amount and category; nothing is kept per row
+            long[] totalMinor = { 0 };
+            int[] count = { 0 };
+            Map<String, Long> categoryTotals = new HashMap<>();
+
+            db.forEachExpense(userId, ExpenseFilter.all(),
+                    EnumSet.of(ExpenseColumn.AMOUNT, ExpenseColumn.CATEGORY), ex -> {
+                        totalMinor[0] += ex.getAmountMinor();
+                        count[0]++;
+                        categoryTotals.merge(ex.getCategory(), ex.getAmountMinor(), Long::sum);
+                    });
+
+            return new SpendingSummary(totalMinor[0], count[0], topCategory(categoryTotals));
+        }).thenAccept(this::showSummary);
+    }
+
+    private static String topCategory(Map<String, Long> categoryTotals) {
+        return categoryTotals.entrySet().stream()
                 .max(Map.Entry.comparingByValue())
                 .map(Map.Entry::getKey)
                 .orElse("N/A");
+    }
 
-        double avg = expenses.isEmpty() ? 0 : total / expenses.size();
+    private void showSummary(SpendingSummary summary) {
+        lastSummary = summary;
+        summaryCardBox.getChildren().setAll(createSummaryCards(summary).getChildren());
+    }
+
+    private HBox createSummaryCards(SpendingSummary summary) {
+        // Sum exact cents, convert once
+        double total = convert(Money.toMajor(summary.totalMinor()));
+        String topCategory = summary.topCategory();
+        double avg = summary.count() == 0 ? 0 : total / summary.count();
 
         VBox card1 = dashboardCard("Total Spent (" + selectedCurrency + ")",
                 String.format("%.2f", total));
@@ -834,85 +1136,90 @@ public class ExpenseManager_MainApp extends Application {
         a.showAndWait();
     }
 
-    private void showReportWindow() {
-        ReportGenerator reportGen = new ReportGenerator(dbHandler.getConnection());
-
-        Map<String, Double> monthly = reportGen.generateMonthlySummary();
-        Map<String, Double> category = reportGen.generateCategorySummary();
-        double total = reportGen.generateTotalSummary();
-
-        String reportText = buildReportText(monthly, category, total);
+    // The message of what went wrong, not of the CompletionException a failed future wraps it in
+    private static String reason(Throwable err) {
+        Throwable cause = err instanceof CompletionException && err.getCause() != null ? err.getCause() : err;
+        return cause.getMessage();
+    }
 
-        TextArea area = new TextArea(reportText);
+    private void showReportWindow() {
+        TextArea area = new TextArea("Loading report...");
         area.setEditable(false);
 
+        // Optional range; leave both empty for the whole history
+        DatePicker fromPicker = new DatePicker();
+        fromPicker.setPromptText("From");
+        DatePicker toPicker = new DatePicker();
+        toPicker.setPromptText("To");
+        CheckBox archiveBox = new CheckBox("Include archive");
+        Button applyBtn = new Button("Apply");
+
         ComboBox<String> formatBox = new ComboBox<>();
         formatBox.getItems().addAll("TXT", "CSV", "PDF", "Excel (XLSX)", "JSON");
         formatBox.setValue("TXT");
 
+        // Latest report shown in the window, for the exporters
+        ReportResult[] shown = { null };
+
+        Runnable runReport = () -> {
+            int userId = currentUserId;
+            LocalDate from = fromPicker.getValue();
+            LocalDate to = toPicker.getValue();
+            boolean includeArchive = archiveBox.isSelected();
+            asyncDb.read("report", db -> db.generateReport(userId, from, to, includeArchive))
+                    .thenAccept(report -> {
+                        shown[0] = report;
+                        area.setText(report.toText());
+                    });
+        };
+        applyBtn.setOnAction(e -> runReport.run());
+
         Button exportBtn = new Button("Export");
         exportBtn.setOnAction(e -> {
-            String format = formatBox.getValue();
-            exportReport(format, reportText, monthly, category, total);
+            if (shown[0] != null)
+                exportReport(formatBox.getValue(), shown[0]);
         });
 
-        VBox root = new VBox(10, area, formatBox, exportBtn);
+        HBox rangeBox = new HBox(10, fromPicker, toPicker, archiveBox, applyBtn);
+        VBox root = new VBox(10, rangeBox, area, formatBox, exportBtn);
         root.setPadding(new Insets(10));
 
         Stage stage = new Stage();
         stage.setTitle("Expense Report");
         stage.setScene(new Scene(root, 500, 600));
         stage.show();
-    }
-
-    private String buildReportText(Map<String, Double> monthly,
-            Map<String, Double> category,
-            double total) {
-
-        StringBuilder sb = new StringBuilder();
-        sb.append("=== Monthly Summary ===\n");
-        monthly.forEach((m, v) -> sb.append(m).append(": ").append(v).append("\n"));
 
-        sb.append("\n=== Category Summary ===\n");
-        category.forEach((c, v) -> sb.append(c).append(": ").append(v).append("\n"));
-
-        sb.append("\n=== Total Expenses ===\n");
-        sb.append(total).append("\n");
-
-        return sb.toString();
+        runReport.run();
     }
 
-    private void exportReport(String format, String text,
-            Map<String, Double> monthly,
-            Map<String, Double> category,
-            double total) {
+    private void exportReport(String format, ReportResult report) {
         FileChooser chooser = new FileChooser();
         chooser.setTitle("Save Report");
 
         switch (format) {
             case "TXT":
                 chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Text File", "*.txt"));
-                saveText(chooser.showSaveDialog(null), text);
+                saveText(chooser.showSaveDialog(null), report.toText());
                 break;
 
             case "CSV":
                 chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("CSV File", "*.csv"));
-                saveCSV(chooser.showSaveDialog(null), monthly, category, total);
+                saveText(chooser.showSaveDialog(null), report.toCsv());
                 break;
 
             case "PDF":
                 chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("PDF File", "*.pdf"));
-                savePDF(chooser.showSaveDialog(null), text);
+                savePDF(chooser.showSaveDialog(null), report.toText());
                 break;
 
             case "Excel (XLSX)":
                 chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Excel File", "*.xlsx"));
-                saveExcel(chooser.showSaveDialog(null), monthly, category, total);
+                saveExcel(chooser.showSaveDialog(null), report);
                 break;
 
             case "JSON":
                 chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("JSON File", "*.json"));
-                saveJSON(chooser.showSaveDialog(null), monthly, category, total);
+                saveText(chooser.showSaveDialog(null), report.toJson().toString(4));
                 break;
         }
     }
@@ -928,32 +1235,6 @@ public class ExpenseManager_MainApp extends Application {
         }
     }
 
-    private void saveCSV(File file,
-            Map<String, Double> monthly,
-            Map<String, Double> category,
-            double total) {
-
-        if (file == null)
-            return;
-
-        try (FileWriter fw = new FileWriter(file)) {
-            fw.write("Section,Key,Value\n");
-
-            for (var e : monthly.entrySet()) {
-                fw.write("Monthly," + e.getKey() + "," + e.getValue() + "\n");
-            }
-
-            for (var e : category.entrySet()) {
-                fw.write("Category," + e.getKey() + "," + e.getValue() + "\n");
-            }
-
-            fw.write("Total,All," + total + "\n");
-
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
     private void savePDF(File file, String text) {
         if (file == null)
             return;
@@ -969,10 +1250,7 @@ public class ExpenseManager_MainApp extends Application {
         }
     }
 
-    private void saveExcel(File file,
-            Map<String, Double> monthly,
-            Map<String, Double> category,
-            double total) {
+    private void saveExcel(File file, ReportResult report) {
 
         if (file == null)
             return;
@@ -986,10 +1264,10 @@ public class ExpenseManager_MainApp extends Application {
             Row title1 = sheet.createRow(rowIndex++);
             title1.createCell(0).setCellValue("Monthly Summary");
 
-            for (var e : monthly.entrySet()) {
+            for (var e : report.monthlyTotals().entrySet()) {
                 Row row = sheet.createRow(rowIndex++);
                 row.createCell(0).setCellValue(e.getKey());
-                row.createCell(1).setCellValue(e.getValue());
+                row.createCell(1).setCellValue(Money.toMajor(e.getValue()));
             }
 
             rowIndex++;
@@ -998,10 +1276,10 @@ public class ExpenseManager_MainApp extends Application {
             Row title2 = sheet.createRow(rowIndex++);
             title2.createCell(0).setCellValue("Category Summary");
 
-            for (var e : category.entrySet()) {
+            for (var e : report.categoryTotals().entrySet()) {
                 Row row = sheet.createRow(rowIndex++);
                 row.createCell(0).setCellValue(e.getKey());
-                row.createCell(1).setCellValue(e.getValue());
+                row.createCell(1).setCellValue(Money.toMajor(e.getValue()));
             }
 
             rowIndex++;
@@ -1011,7 +1289,7 @@ public class ExpenseManager_MainApp extends Application {
             title3.createCell(0).setCellValue("Total Expenses");
             Row totalRow = sheet.createRow(rowIndex++);
             totalRow.createCell(0).setCellValue("Total");
-            totalRow.createCell(1).setCellValue(total);
+            totalRow.createCell(1).setCellValue(Money.toMajor(report.totalMinor()));
 
             // Save to file
             FileOutputStream fos = new FileOutputStream(file);
@@ -1023,32 +1301,23 @@ public class ExpenseManager_MainApp extends Application {
         }
     }
 
-    private void saveJSON(File file,
-            Map<String, Double> monthly,
-            Map<String, Double> category,
-            double total) {
-
-        if (file == null)
-            return;
-
-        JSONObject json = new JSONObject();
-        json.put("monthly", monthly);
-        json.put("category", category);
-        json.put("total", total);
-
-        try (FileWriter fw = new FileWriter(file)) {
-            fw.write(json.toString(4));
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
     public void logout() {
         Stage stage = (Stage) logoutButton.getScene().getWindow();
         stage.close();
+        currentUserId = -1;
         start(new Stage());
     }
 
+    @Override
+    public void stop() {
+        if (backups != null)
+            backups.close();
+        if (asyncDb != null)
+            asyncDb.close();
+        if (dbHandler != null)
+            dbHandler.close();
+    }
+
     public static void main(String[] args) {
         launch(args);
     }
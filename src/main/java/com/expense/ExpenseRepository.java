@@ -0,0 +1,373 @@
+package com.expense;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+
+/**
+ * One user's expenses, loaded once at login and kept in memory indexed by
+ * id, by day and by category. Creates, updates and deletes go to the
+ * database first and are applied to the in-memory copy only once the write
+ * has succeeded, so the UI reads from memory without querying again.
+ *
+ * With a month limit, only the most recent months are kept; older months
+ * are evicted and reads that need them fall back to the database. Expenses
+ * without a valid date are never evicted.
+ *
+ * Not thread-safe: use it from the thread that receives the async handler's
+ * callbacks (the JavaFX thread in the app).
+ */
+
+public class ExpenseRepository {
+
+    private final AsyncDatabaseHandler db;
+    private final int userId;
+    private final int maxMonths;
+
+    private Index index;
+    private long loadedVersion = -1;
+    private CompletableFuture<Void> pendingLoad;
+
+    /**
+     * @param maxMonths Most recent months kept in memory, or 0 for all
+     */
+    public ExpenseRepository(AsyncDatabaseHandler db, int userId, int maxMonths) {
+        if (maxMonths < 0)
+            throw new IllegalArgumentException("Month limit must not be negative");
+        this.db = db;
+        this.userId = userId;
+        this.maxMonths = maxMonths;
+        this.index = new Index(maxMonths);
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    // ===== Loading =====
+
+    /**
+     * Reads the user's expenses on a reader thread and swaps in a fresh
+     * index. A load already in flight is shared rather than repeated.
+     */
+    public CompletableFuture<Void> load() {
+        if (pendingLoad != null)
+            return pendingLoad;
+
+        long version = DataVersions.current(userId);
+        CompletableFuture<Void> loading = db.read("loadRepository", handler -> {
+            Index fresh = new Index(maxMonths);
+            handler.forEachExpense(userId, ExpenseFilter.all(), ExpenseColumn.ALL, fresh::add);
+            return fresh;
+        }).handle((fresh, error) -> {
+            pendingLoad = null;
+            if (error != null)
+                throw new CompletionException(error);
+            index = fresh;
+            loadedVersion = version;
+            return null;
+        });
+        pendingLoad = loading.isDone() ? null : loading;
+        return loading;
+    }
+
+    public boolean isLoaded() {
+        return loadedVersion >= 0;
+    }
+
+    /**
+     * @return Whether the memory copy reflects every write made to the
+     *         user's expenses, including writes that bypassed this repository
+     */
+    public boolean isCurrent() {
+        return isLoaded() && loadedVersion == DataVersions.current(userId);
+    }
+
+    /**
+     * @return Whether every expense is in memory, i.e. no month was evicted
+     */
+    public boolean isComplete() {
+        return isLoaded() && !index.evicted;
+    }
+
+    // ===== Reads =====
+
+    /**
+     * @return The expenses in memory, in no particular order
+     */
+    public List<Expense> all() {
+        return new ArrayList<>(index.byId.values());
+    }
+
+    public List<Expense> sorted(ExpenseSort sort, boolean ascending) {
+        List<Expense> rows = all();
+        Comparator<Expense> order = sort.comparator();
+        rows.sort(ascending ? order : order.reversed());
+        return rows;
+    }
+
+    public int size() {
+        return index.byId.size();
+    }
+
+    public long getTotalMinor() {
+        return index.totalMinor;
+    }
+
+    /**
+     * @return Category name to total in minor units, over the expenses in
+     *         memory
+     */
+    public Map<String, Long> getCategoryTotals() {
+        Map<String, Long> totals = new HashMap<>();
+        index.byCategory.forEach((category, rows) -> totals.put(category,
+                rows.values().stream().mapToLong(Expense::getAmountMinor).sum()));
+        return totals;
+    }
+
+    /**
+     * Returns a copy of the expense, safe to edit before passing it to
+     * {@link #update}.
+     */
+    public CompletableFuture<Expense> getById(int id) {
+        Expense cached = index.byId.get(id);
+        if (cached != null)
+            return CompletableFuture.completedFuture(new Expense(cached));
+        return db.getExpenseById(id, userId);
+    }
+
+    public CompletableFuture<Map<LocalDate, Long>> getDailyTotals(YearMonth month) {
+        if (!index.isResident(DateKeys.monthKey(month)))
+            return db.getDailyTotals(userId, month);
+
+        Map<LocalDate, Long> totals = new TreeMap<>();
+        index.days(month.atDay(1), month.atEndOfMonth()).forEach((day, rows) -> totals.put(
+                LocalDate.ofEpochDay(day), rows.values().stream().mapToLong(Expense::getAmountMinor).sum()));
+        return CompletableFuture.completedFuture(totals);
+    }
+
+    /**
+     * Expenses dated from {@code from} to {@code to}, both inclusive, in
+     * date then id order.
+     */
+    public CompletableFuture<List<Expense>> getExpensesInRange(LocalDate from, LocalDate to) {
+        if (!index.isResident(DateKeys.monthKey(YearMonth.from(from))))
+            return db.getExpensesInRange(userId, from, to);
+
+        List<Expense> rows = new ArrayList<>();
+        index.days(from, to).values().forEach(day -> rows.addAll(day.values()));
+        return CompletableFuture.completedFuture(rows);
+    }
+
+    // ===== Writes =====
+
+    /** Sets the new id on {@code e}; fails, as the handler's save does, if the store did not save it. */
+    public CompletableFuture<Void> save(Expense e) {
+        Expense pending = new Expense(e);
+        return db.saveExpense(pending, userId).thenRun(() -> {
+            e.setId(pending.getId());
+            applied(() -> index.add(pending));
+        });
+    }
+
+    public CompletableFuture<Boolean> update(Expense e) {
+        Expense pending = new Expense(e);
+        return db.updateExpense(pending, userId).thenApply(changed -> {
+            if (changed)
+                applied(() -> {
+                    index.remove(pending.getId());
+                    index.add(pending);
+                });
+            return changed;
+        });
+    }
+
+    public CompletableFuture<Boolean> delete(Expense e) {
+        int id = e.getId();
+        return db.deleteExpense(e, userId).thenApply(deleted -> {
+            if (deleted)
+                applied(() -> index.remove(id));
+            return deleted;
+        });
+    }
+
+    public CompletableFuture<Void> deleteAll() {
+        return db.deleteAllExpenses(userId).thenRun(() -> applied(() -> index = new Index(maxMonths)));
+    }
+
+    // ===== Bulk writes =====
+
+    public CompletableFuture<Integer> deleteExpenses(Collection<Integer> ids) {
+        List<Integer> selected = List.copyOf(ids);
+        return db.deleteExpenses(selected, userId).thenApply(deleted -> {
+            if (deleted > 0)
+                applied(() -> selected.forEach(index::remove));
+            return deleted;
+        });
+    }
+
+    public CompletableFuture<Integer> recategorize(Collection<Integer> ids, String category) {
+        List<Integer> selected = List.copyOf(ids);
+        String normalized = CategoryNormalizer.shared().normalize(category);
+        return db.recategorize(selected, normalized, userId).thenApply(changed -> {
+            if (changed > 0)
+                applied(() -> index.edit(selected, e -> e.setCategory(normalized)));
+            return changed;
+        });
+    }
+
+    /**
+     * Moves the selected expenses' dates by {@code days}. With months
+     * evicted, rows may move in from months that are not in memory, so the
+     * repository reloads instead.
+     */
+    public CompletableFuture<Integer> shiftDates(Collection<Integer> ids, int days) {
+        List<Integer> selected = List.copyOf(ids);
+        return db.shiftDates(selected, days, userId).thenCompose(changed -> {
+            if (changed == 0)
+                return CompletableFuture.completedFuture(changed);
+            if (!isComplete())
+                return load().thenApply(v -> changed);
+
+            applied(() -> index.edit(selected, e -> {
+                if (e.getEpochDay() != DateKeys.NONE)
+                    e.setDate(LocalDate.ofEpochDay(e.getEpochDay() + days).toString());
+            }));
+            return CompletableFuture.completedFuture(changed);
+        });
+    }
+
+    /**
+     * Inserts a batch, then reloads: one read is cheaper than applying
+     * thousands of rows whose ids the bulk insert does not report.
+     *
+     * @return The number of expenses saved
+     */
+    public CompletableFuture<Integer> importAll(List<Expense> expenses) {
+        return db.saveExpenses(expenses, userId).thenCompose(saved -> load().thenApply(v -> saved));
+    }
+
+    /**
+     * Streams a CSV file into the store through {@link CsvImportPipeline} on
+     * the bulk thread, then reloads. Memory use does not grow with the file,
+     * and other writes run between the import's batches.
+     */
+    public CompletableFuture<CsvImportPipeline.Result> importCsv(Path file) {
+        return db.bulkWrite("importCsv", store -> {
+            try {
+                return new CsvImportPipeline().run(file, store, userId);
+            } catch (IOException err) {
+                throw new UncheckedIOException(err);
+            }
+        }).thenCompose(result -> load().thenApply(v -> result));
+    }
+
+    // Applies a successful write; stays current only if no other writer got in between
+    private void applied(Runnable change) {
+        long version = DataVersions.current(userId);
+        boolean wasCurrent = version == loadedVersion || version == loadedVersion + 1;
+        change.run();
+        if (wasCurrent)
+            loadedVersion = version;
+    }
+
+    // ===== Index =====
+
+    private static final class Index {
+        private final int maxMonths;
+
+        private final Map<Integer, Expense> byId = new HashMap<>();
+        private final NavigableMap<Integer, Map<Integer, Expense>> byDay = new TreeMap<>();
+        private final Map<String, Map<Integer, Expense>> byCategory = new HashMap<>();
+        private final NavigableMap<Integer, Integer> monthCounts = new TreeMap<>();
+        private long totalMinor;
+
+        // Months up to and including this one are not in memory
+        private boolean evicted;
+        private int evictedThrough;
+
+        Index(int maxMonths) {
+            this.maxMonths = maxMonths;
+        }
+
+        boolean isResident(int monthKey) {
+            return monthKey == DateKeys.NONE || !evicted || monthKey > evictedThrough;
+        }
+
+        SortedMap<Integer, Map<Integer, Expense>> days(LocalDate from, LocalDate to) {
+            return byDay.subMap((int) from.toEpochDay(), true, (int) to.toEpochDay(), true);
+        }
+
+        void add(Expense e) {
+            int month = e.getMonthKey();
+            if (!isResident(month))
+                return;
+
+            byId.put(e.getId(), e);
+            byDay.computeIfAbsent(e.getEpochDay(), k -> new TreeMap<>()).put(e.getId(), e);
+            byCategory.computeIfAbsent(categoryOf(e), k -> new HashMap<>()).put(e.getId(), e);
+            totalMinor += e.getAmountMinor();
+
+            if (month != DateKeys.NONE) {
+                monthCounts.merge(month, 1, Integer::sum);
+                while (maxMonths > 0 && monthCounts.size() > maxMonths)
+                    evictOldestMonth();
+            }
+        }
+
+        void remove(int id) {
+            Expense e = byId.remove(id);
+            if (e == null)
+                return;
+
+            removeFrom(byDay, e.getEpochDay(), id);
+            removeFrom(byCategory, categoryOf(e), id);
+            totalMinor -= e.getAmountMinor();
+            if (e.getMonthKey() != DateKeys.NONE)
+                monthCounts.computeIfPresent(e.getMonthKey(), (k, n) -> n > 1 ? n - 1 : null);
+        }
+
+        // Re-indexes each expense after editing a copy of it
+        void edit(Collection<Integer> ids, Consumer<Expense> change) {
+            for (int id : ids) {
+                Expense current = byId.get(id);
+                if (current == null)
+                    continue;
+
+                Expense edited = new Expense(current);
+                change.accept(edited);
+                remove(id);
+                add(edited);
+            }
+        }
+
+        private void evictOldestMonth() {
+            int oldest = monthCounts.firstKey();
+            YearMonth month = DateKeys.yearMonth(oldest);
+
+            List<Integer> ids = new ArrayList<>();
+            days(month.atDay(1), month.atEndOfMonth()).values().forEach(day -> ids.addAll(day.keySet()));
+            ids.forEach(this::remove);
+
+            monthCounts.remove(oldest);
+            evicted = true;
+            evictedThrough = oldest;
+        }
+
+        private static String categoryOf(Expense e) {
+            return e.getCategory() == null ? CategoryDictionary.DEFAULT_CATEGORY : e.getCategory();
+        }
+
+        private static <K> void removeFrom(Map<K, Map<Integer, Expense>> index, K key, int id) {
+            Map<Integer, Expense> rows = index.get(key);
+            if (rows != null && rows.remove(id) != null && rows.isEmpty())
+                index.remove(key);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.expense;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Per-user monthly and category totals stored next to the expenses table.
+ * Triggers from schema migration 9 keep them exact in the same transaction
+ * as every insert, update and delete, so reports read one row per month or
+ * category instead of scanning every expense.
+ *
+ * Rows without a date parseable into a month roll up under month 0, rows
+ * without a category under category 0. Rows without a user are not rolled up.
+ *
+ * Run: mvn -q compile exec:java -Dexec.mainClass=com.expense.ExpenseRollups -Dexec.args="check"
+ * (argument: check or rebuild)
+ */
+
+public class ExpenseRollups {
+
+    public static final String MONTHLY_TABLE = "expense_monthly_totals";
+    public static final String CATEGORY_TABLE = "expense_category_totals";
+
+    // Stored key for rows with no month or no category
+    public static final int NO_KEY = 0;
+
+    // What the rollup tables must contain, recomputed from expenses
+    private static final Map<String, String> EXPECTED = new LinkedHashMap<>();
+
+    static {
+        EXPECTED.put(MONTHLY_TABLE, """
+                SELECT user_id, COALESCE(month, 0) AS month, SUM(amount_minor) AS total_minor, COUNT(*) AS expense_count
+                FROM expenses
+                WHERE user_id IS NOT NULL
+                GROUP BY user_id, COALESCE(month, 0)
+                """);
+        EXPECTED.put(CATEGORY_TABLE, """
+                SELECT user_id, COALESCE(category_id, 0) AS category_id, SUM(amount_minor) AS total_minor,
+                       COUNT(*) AS expense_count
+                FROM expenses
+                WHERE user_id IS NOT NULL
+                GROUP BY user_id, COALESCE(category_id, 0)
+                """);
+    }
+
+    private static final Map<String, String> KEY_COLUMN = Map.of(
+            MONTHLY_TABLE, "month",
+            CATEGORY_TABLE, "category_id");
+
+    /**
+     * Returns the statements that create one rollup table. Used by the schema
+     * migration, so the definition must not change once shipped.
+     */
+
+    static List<String> createTable(String table, String keyColumn) {
+        return List.of(
+                """
+                CREATE TABLE %s (
+                    user_id INTEGER NOT NULL,
+                    %s INTEGER NOT NULL,
+                    total_minor INTEGER NOT NULL,
+                    expense_count INTEGER NOT NULL,
+                    PRIMARY KEY (user_id, %s)
+                ) WITHOUT ROWID
+                """.formatted(table, keyColumn, keyColumn));
+    }
+
+    /**
+     * Builds a trigger on expenses that takes the OLD row out of both rollups
+     * and/or adds the NEW row to them.
+     *
+     * @param event  e.g. "AFTER INSERT"
+     * @param oldRow Whether the trigger subtracts OLD
+     * @param newRow Whether the trigger adds NEW
+     */
+
+    static String trigger(String name, String event, boolean oldRow, boolean newRow) {
+        StringBuilder body = new StringBuilder();
+        for (String table : EXPECTED.keySet()) {
+            String key = KEY_COLUMN.get(table);
+
+            if (oldRow) {
+                // A NULL OLD.user_id matches nothing, so unowned rows are skipped
+                body.append("""
+                        UPDATE %1$s
+                        SET total_minor = total_minor - OLD.amount_minor, expense_count = expense_count - 1
+                        WHERE user_id = OLD.user_id AND %2$s = COALESCE(OLD.%2$s, 0);
+                        DELETE FROM %1$s
+                        WHERE user_id = OLD.user_id AND %2$s = COALESCE(OLD.%2$s, 0) AND expense_count = 0;
+                        """.formatted(table, key));
+            }
+            if (newRow) {
+                // The WHERE clause also keeps ON CONFLICT from parsing as a join constraint
+                body.append("""
+                        INSERT INTO %1$s (user_id, %2$s, total_minor, expense_count)
+                        SELECT NEW.user_id, COALESCE(NEW.%2$s, 0), NEW.amount_minor, 1
+                        WHERE NEW.user_id IS NOT NULL
+                        ON CONFLICT (user_id, %2$s) DO UPDATE
+                        SET total_minor = total_minor + excluded.total_minor, expense_count = expense_count + 1;
+                        """.formatted(table, key));
+            }
+        }
+
+        return "CREATE TRIGGER " + name + " " + event + " ON expenses\nBEGIN\n" + body + "END";
+    }
+
+    /**
+     * Recomputes both rollup tables from expenses. Runs in the caller's
+     * transaction.
+     */
+
+    public static void rebuild(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            for (Map.Entry<String, String> entry : EXPECTED.entrySet()) {
+                String table = entry.getKey();
+                String key = KEY_COLUMN.get(table);
+                stmt.executeUpdate("DELETE FROM " + table);
+                stmt.executeUpdate("INSERT INTO " + table + " (user_id, " + key + ", total_minor, expense_count) "
+                        + entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Compares each rollup table with totals recomputed from expenses.
+     *
+     * @return A map from table name to the number of rows that are missing,
+     *         extra or wrong; all zeros when the rollups are exact
+     */
+
+    public static Map<String, Integer> check(Connection connection) throws SQLException {
+        Map<String, Integer> mismatches = new LinkedHashMap<>();
+
+        for (Map.Entry<String, String> entry : EXPECTED.entrySet()) {
+            String table = entry.getKey();
+            String stored = "SELECT user_id, " + KEY_COLUMN.get(table) + ", total_minor, expense_count FROM " + table;
+            String expected = entry.getValue();
+
+            String sql = "SELECT (SELECT COUNT(*) FROM (" + expected + " EXCEPT " + stored + "))"
+                    + " + (SELECT COUNT(*) FROM (" + stored + " EXCEPT " + expected + "))";
+
+            try (Statement stmt = connection.createStatement();
+                    ResultSet rs = stmt.executeQuery(sql)) {
+                mismatches.put(table, rs.next() ? rs.getInt(1) : 0);
+            }
+        }
+
+        return mismatches;
+    }
+
+    public static void main(String[] args) {
+        String command = args.length > 0 ? args[0] : "check";
+        if (!command.equals("check") && !command.equals("rebuild")) {
+            System.err.println("Usage: ExpenseRollups [check|rebuild]");
+            System.exit(2);
+        }
+
+        DatabaseHandler db = new DatabaseHandler();
+        int status = 0;
+        try {
+            db.connect();
+
+            if (command.equals("rebuild") && !db.rebuildRollups()) {
+                status = 1;
+            } else {
+                Map<String, Integer> mismatches = check(db.getConnection());
+                mismatches.forEach((table, rows) -> System.out.println(table + ": " + rows + " mismatched rows"));
+                if (mismatches.values().stream().anyMatch(rows -> rows != 0))
+                    status = 1;
+            }
+        } catch (SQLException e) {
+            System.err.println("Rollup " + command + " failed: " + e.getMessage());
+            status = 1;
+        } finally {
+            db.close();
+        }
+
+        System.exit(status);
+    }
+}
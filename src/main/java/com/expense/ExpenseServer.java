@@ -0,0 +1,472 @@
+package com.expense;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Headless JSON API over HTTP, so many users can share one central ledger.
+ * Nothing from JavaFX is loaded.
+ *
+ * Requests run on the JDK's built-in server with one virtual thread each, so
+ * thousands of open requests cost little while they wait. The database work
+ * itself goes through an {@link AsyncDatabaseHandler}: one writer connection
+ * and a small pool of reader connections, which is all SQLite can use at
+ * once anyway.
+ *
+ * Endpoints (dates are yyyy-MM-dd, amounts decimals such as "12.50"):
+ * <pre>
+ * POST   /api/register          {"username", "password"}
+ * POST   /api/login             {"username", "password"} -&gt; {"token", "userId"}
+ * POST   /api/logout
+ * GET    /api/expenses          ?from=&amp;to= for a date range, otherwise one page:
+ *                               ?sort=date&amp;order=desc&amp;after=&lt;id&gt;&amp;limit=100
+ * POST   /api/expenses          {"date", "name", "amount", "category", "description"}
+ *                               ?durable=true (also on PUT) waits for a synced commit
+ * GET    /api/expenses/{id}
+ * PUT    /api/expenses/{id}
+ * DELETE /api/expenses/{id}
+ * GET    /api/daily?month=yyyy-MM
+ * GET    /api/search?q=&amp;limit=
+ * GET    /api/report?from=&amp;to=&amp;archive=true
+ * </pre>
+ * All but register and login need an {@code Authorization: Bearer <token>}
+ * header. Sessions live in memory and end when the server stops.
+ *
+ * With {@code -Dexpense.server.groupCommitMs=N} (SQLite only), creates and
+ * updates go through a {@link WriteBehindQueue} and are committed in groups
+ * at most N ms apart. A reply is still sent only after its write commits.
+ *
+ * Run: mvn -q compile exec:java -Dexec.mainClass=com.expense.ExpenseServer -Dexec.args="8080"
+ * (argument: port; -Dexpense.store=memory serves the in-memory store)
+ */
+
+public class ExpenseServer implements AutoCloseable {
+
+    public static final int DEFAULT_PORT = 8080;
+    public static final int DEFAULT_BACKLOG = 1024;
+
+    private static final int DEFAULT_PAGE = 100;
+    private static final int MAX_PAGE = 1000;
+    private static final int MAX_BODY_BYTES = 1 << 20;
+
+    private final AsyncDatabaseHandler db;
+    private final WriteBehindQueue writeBehind; // null when writes go straight to db
+    private final HttpServer server;
+    private final ExecutorService requests = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final Map<String, Integer> sessions = new ConcurrentHashMap<>(); // token -> user id
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * @param db      Connected handler; the server uses it but does not close it
+     * @param backlog Connections the OS queues before the server accepts them
+     */
+    public ExpenseServer(AsyncDatabaseHandler db, InetSocketAddress address, int backlog) throws IOException {
+        this(db, null, address, backlog);
+    }
+
+    /**
+     * @param writeBehind Queue for creates and updates, or null; the server
+     *                    uses it but does not close it
+     */
+    public ExpenseServer(AsyncDatabaseHandler db, WriteBehindQueue writeBehind, InetSocketAddress address,
+            int backlog) throws IOException {
+        this.db = db;
+        this.writeBehind = writeBehind;
+        this.server = HttpServer.create(address, backlog);
+        server.setExecutor(requests);
+
+        server.createContext("/api/register", exchange -> handle(exchange, this::register));
+        server.createContext("/api/login", exchange -> handle(exchange, this::login));
+        server.createContext("/api/logout", exchange -> handle(exchange, this::logout));
+        server.createContext("/api/expenses", exchange -> handle(exchange, this::expenses));
+        server.createContext("/api/daily", exchange -> handle(exchange, this::daily));
+        server.createContext("/api/search", exchange -> handle(exchange, this::search));
+        server.createContext("/api/report", exchange -> handle(exchange, this::report));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * Stops accepting connections, gives open requests a second to finish,
+     * then waits for their threads.
+     */
+    @Override
+    public void close() {
+        server.stop(1);
+        requests.close();
+    }
+
+    // ===== Endpoints =====
+
+    // One endpoint: returns the reply, or throws HttpError for a client error
+    private interface Endpoint {
+        Reply handle(HttpExchange exchange) throws IOException;
+    }
+
+    private record Reply(int status, Object body) {
+
+        static Reply ok(Object body) {
+            return new Reply(200, body);
+        }
+    }
+
+    private Reply register(HttpExchange exchange) throws IOException {
+        requireMethod(exchange, "POST");
+        User user = credentials(readJson(exchange));
+        boolean created = db.write("register", store -> store.register(user)).join();
+        if (!created)
+            throw new HttpError(409, "Username is taken");
+        return new Reply(201, new JSONObject().put("username", user.getUsername()));
+    }
+
+    private Reply login(HttpExchange exchange) throws IOException {
+        requireMethod(exchange, "POST");
+        User user = credentials(readJson(exchange));
+        int userId = db.read("login", store -> store.login(user)).join();
+        if (userId < 0)
+            throw new HttpError(401, "Wrong username or password");
+
+        byte[] bytes = new byte[24];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        sessions.put(token, userId);
+        return Reply.ok(new JSONObject().put("token", token).put("userId", userId));
+    }
+
+    private Reply logout(HttpExchange exchange) {
+        requireMethod(exchange, "POST");
+        userOf(exchange);
+        sessions.remove(token(exchange));
+        return new Reply(204, null);
+    }
+
+    private Reply expenses(HttpExchange exchange) throws IOException {
+        int userId = userOf(exchange);
+        String rest = exchange.getRequestURI().getPath().substring("/api/expenses".length());
+        if (rest.isEmpty() || rest.equals("/")) {
+            return switch (exchange.getRequestMethod()) {
+                case "GET" -> listExpenses(exchange, userId);
+                case "POST" -> createExpense(exchange, userId);
+                default -> throw new HttpError(405, "Use GET or POST");
+            };
+        }
+
+        int id = parse("id", rest.substring(1), Integer::parseInt);
+        return switch (exchange.getRequestMethod()) {
+            case "GET" -> {
+                Expense e = db.getExpenseById(id, userId).join();
+                if (e == null)
+                    throw new HttpError(404, "No expense " + id);
+                yield Reply.ok(toJson(e));
+            }
+            case "PUT" -> {
+                Expense e = fromJson(id, readJson(exchange));
+                boolean updated = writeBehind != null
+                        ? writeBehind.update(e, userId, durable(exchange)).join()
+                        : db.updateExpense(e, userId).join();
+                if (!updated)
+                    throw new HttpError(404, "No expense " + id);
+                yield Reply.ok(toJson(e));
+            }
+            case "DELETE" -> {
+                if (!db.deleteExpense(new Expense(id), userId).join())
+                    throw new HttpError(404, "No expense " + id);
+                yield new Reply(204, null);
+            }
+            default -> throw new HttpError(405, "Use GET, PUT or DELETE");
+        };
+    }
+
+    private Reply listExpenses(HttpExchange exchange, int userId) {
+        Map<String, String> query = query(exchange);
+
+        if (query.containsKey("from") || query.containsKey("to")) {
+            LocalDate from = parse("from", required(query, "from"), LocalDate::parse);
+            LocalDate to = parse("to", required(query, "to"), LocalDate::parse);
+            return Reply.ok(new JSONObject().put("expenses", toJson(db.getExpensesInRange(userId, from, to).join())));
+        }
+
+        ExpenseSort sort = parse("sort", query.getOrDefault("sort", "date"),
+                s -> ExpenseSort.valueOf(s.toUpperCase(Locale.ROOT)));
+        boolean ascending = query.getOrDefault("order", "desc").equalsIgnoreCase("asc");
+        int limit = Math.min(MAX_PAGE, parse("limit", query.getOrDefault("limit", "" + DEFAULT_PAGE),
+                Integer::parseUnsignedInt));
+
+        // The cursor is the last expense of the previous page
+        Expense after = null;
+        if (query.containsKey("after")) {
+            int afterId = parse("after", query.get("after"), Integer::parseInt);
+            after = db.getExpenseById(afterId, userId).join();
+            if (after == null)
+                throw new HttpError(400, "No expense " + afterId + " to page after");
+        }
+
+        List<Expense> page = db.getExpensePage(userId, sort, ascending, after, limit).join();
+        JSONObject json = new JSONObject().put("expenses", toJson(page));
+        if (page.size() == limit && limit > 0)
+            json.put("next", page.get(page.size() - 1).getId());
+        return Reply.ok(json);
+    }
+
+    private Reply createExpense(HttpExchange exchange, int userId) throws IOException {
+        Expense e = fromJson(null, readJson(exchange));
+        // Either future fails if nothing was stored, which handle() answers with a 500
+        if (writeBehind != null)
+            writeBehind.save(e, userId, durable(exchange)).join();
+        else
+            db.saveExpense(e, userId).join();
+        return new Reply(201, toJson(e));
+    }
+
+    private Reply daily(HttpExchange exchange) {
+        requireMethod(exchange, "GET");
+        int userId = userOf(exchange);
+        YearMonth month = parse("month", required(query(exchange), "month"), YearMonth::parse);
+
+        Map<String, BigDecimal> totals = new LinkedHashMap<>();
+        db.getDailyTotals(userId, month).join()
+                .forEach((day, minor) -> totals.put(day.toString(), BigDecimal.valueOf(minor, Money.SCALE)));
+        return Reply.ok(new JSONObject().put("month", month.toString()).put("days", totals));
+    }
+
+    private Reply search(HttpExchange exchange) {
+        requireMethod(exchange, "GET");
+        int userId = userOf(exchange);
+        Map<String, String> query = query(exchange);
+        int limit = Math.min(MAX_PAGE, parse("limit", query.getOrDefault("limit", "" + DEFAULT_PAGE),
+                Integer::parseUnsignedInt));
+        return Reply.ok(new JSONObject().put("expenses",
+                toJson(db.searchExpenses(userId, required(query, "q"), limit).join())));
+    }
+
+    private Reply report(HttpExchange exchange) {
+        requireMethod(exchange, "GET");
+        int userId = userOf(exchange);
+        Map<String, String> query = query(exchange);
+        LocalDate from = query.containsKey("from") ? parse("from", query.get("from"), LocalDate::parse) : null;
+        LocalDate to = query.containsKey("to") ? parse("to", query.get("to"), LocalDate::parse) : null;
+        boolean includeArchive = Boolean.parseBoolean(query.get("archive"));
+
+        ReportResult report = db.read("report", store -> store.generateReport(userId, from, to, includeArchive))
+                .join();
+        return Reply.ok(report.toJson());
+    }
+
+    // ===== Request handling =====
+
+    // A client error, answered with its status and message
+    private static final class HttpError extends RuntimeException {
+        final int status;
+
+        HttpError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private void handle(HttpExchange exchange, Endpoint endpoint) {
+        try (exchange) {
+            Reply reply;
+            try {
+                reply = endpoint.handle(exchange);
+            } catch (HttpError e) {
+                reply = error(e.status, e.getMessage());
+            } catch (JSONException e) {
+                reply = error(400, "Bad JSON: " + e.getMessage());
+            } catch (RuntimeException e) {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                System.err.println("Request " + exchange.getRequestURI() + " failed: " + cause);
+                reply = error(500, "Server error");
+            }
+            send(exchange, reply);
+        } catch (IOException e) {
+            // The client went away; nothing left to answer
+        }
+    }
+
+    private static Reply error(int status, String message) {
+        return new Reply(status, new JSONObject().put("error", message));
+    }
+
+    private static void send(HttpExchange exchange, Reply reply) throws IOException {
+        if (reply.body() == null) {
+            exchange.sendResponseHeaders(reply.status(), -1);
+            return;
+        }
+
+        byte[] bytes = reply.body().toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(reply.status(), bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private int userOf(HttpExchange exchange) {
+        String token = token(exchange);
+        Integer userId = token == null ? null : sessions.get(token);
+        if (userId == null)
+            throw new HttpError(401, "Log in first");
+        return userId;
+    }
+
+    private static String token(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        return header != null && header.startsWith("Bearer ") ? header.substring(7).trim() : null;
+    }
+
+    private static void requireMethod(HttpExchange exchange, String method) {
+        if (!exchange.getRequestMethod().equals(method))
+            throw new HttpError(405, "Use " + method);
+    }
+
+    private static JSONObject readJson(HttpExchange exchange) throws IOException {
+        byte[] body = exchange.getRequestBody().readNBytes(MAX_BODY_BYTES + 1);
+        if (body.length > MAX_BODY_BYTES)
+            throw new HttpError(413, "Body over " + MAX_BODY_BYTES + " bytes");
+        return new JSONObject(new String(body, StandardCharsets.UTF_8));
+    }
+
+    private static boolean durable(HttpExchange exchange) {
+        return Boolean.parseBoolean(query(exchange).get("durable"));
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) {
+        Map<String, String> params = new HashMap<>();
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw == null)
+            return params;
+
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            params.put(key, value);
+        }
+        return params;
+    }
+
+    private static String required(Map<String, String> query, String name) {
+        String value = query.get(name);
+        if (value == null || value.isBlank())
+            throw new HttpError(400, "Missing " + name);
+        return value;
+    }
+
+    private interface Parser<T> {
+        T parse(String text);
+    }
+
+    private static <T> T parse(String name, String text, Parser<T> parser) {
+        try {
+            return parser.parse(text);
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new HttpError(400, "Bad " + name + ": " + text);
+        }
+    }
+
+    // ===== JSON =====
+
+    private static User credentials(JSONObject json) {
+        String username = json.optString("username").trim();
+        String password = json.optString("password");
+        if (username.isEmpty() || password.isEmpty())
+            throw new HttpError(400, "username and password are required");
+        return new User(null, username, password);
+    }
+
+    private static JSONObject toJson(Expense e) {
+        JSONObject json = new JSONObject();
+        json.put("id", e.getId());
+        json.put("date", e.getDate());
+        json.put("name", e.getName());
+        json.put("amount", BigDecimal.valueOf(e.getAmountMinor(), Money.SCALE));
+        json.put("category", e.getCategory());
+        json.put("description", e.getDescription());
+        return json;
+    }
+
+    private static JSONArray toJson(List<Expense> expenses) {
+        JSONArray array = new JSONArray();
+        expenses.forEach(e -> array.put(toJson(e)));
+        return array;
+    }
+
+    private static Expense fromJson(Integer id, JSONObject json) {
+        String date = parse("date", json.getString("date"), LocalDate::parse).toString();
+        // The same checks as the app's expense dialogs
+        String name = json.getString("name").trim();
+        if (name.isEmpty())
+            throw new HttpError(400, "name is required");
+        // Amounts arrive as strings or JSON numbers; both parse exactly
+        long amountMinor = parse("amount", String.valueOf(json.get("amount")), Money::parseMinor);
+        if (amountMinor < 0)
+            throw new HttpError(400, "amount must not be negative");
+        // Normalized here too, so the reply shows the category as stored
+        String category = CategoryNormalizer.shared().normalize(json.optString("category", ""));
+        return new Expense(id, date, name, amountMinor, category, json.optString("description", ""));
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int readers = Integer.getInteger("expense.server.readers",
+                Math.max(AsyncDatabaseHandler.DEFAULT_READERS, Runtime.getRuntime().availableProcessors()));
+
+        ExpenseStore store = "memory".equals(System.getProperty("expense.store"))
+                ? new InMemoryExpenseStore()
+                : new DatabaseHandler(SqliteProfile.load(), Path.of(DatabaseHandler.DATABASE_FILE), readers);
+
+        // Request threads wait on the futures, so callbacks need no thread hop
+        AsyncDatabaseHandler db = new AsyncDatabaseHandler(() -> store, readers, Runnable::run);
+        db.connect();
+
+        int groupCommitMs = Integer.getInteger("expense.server.groupCommitMs", 0);
+        WriteBehindQueue writeBehind = null;
+        if (groupCommitMs > 0 && store instanceof DatabaseHandler sqlite) {
+            writeBehind = new WriteBehindQueue(sqlite, WriteBehindQueue.DEFAULT_CAPACITY,
+                    WriteBehindQueue.DEFAULT_MAX_ROWS, Duration.ofMillis(groupCommitMs));
+            System.out.println("Group commit every " + groupCommitMs + " ms");
+        } else if (groupCommitMs > 0) {
+            System.out.println("Group commit applies to SQLite only; writing directly");
+        }
+
+        WriteBehindQueue writes = writeBehind;
+        ExpenseServer server = new ExpenseServer(db, writes, new InetSocketAddress(port),
+                Integer.getInteger("expense.server.backlog", DEFAULT_BACKLOG));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            // Commits whatever is still queued before the database closes
+            if (writes != null)
+                writes.close();
+            db.close();
+        }, "server-shutdown"));
+
+        server.start();
+        System.out.println("Serving on http://localhost:" + server.getAddress().getPort() + "/api/ (Ctrl+C stops)");
+    }
+}
@@ -0,0 +1,49 @@
+package com.expense;
+
+import java.util.Comparator;
+import java.util.function.Function;
+
+/**
+ * Columns the expense table can be ordered by in the database. Each one but
+ * CATEGORY is backed by a (user_id, column) index so paging stays an index
+ * range scan. CATEGORY orders by name, through a join with categories, so
+ * SQL pages and in-memory sorts agree.
+ */
+
+public enum ExpenseSort {
+    ID("e.id", Expense::getId),
+    DATE("e.date", Expense::getDate),
+    NAME("e.name", Expense::getName),
+    AMOUNT("e.amount_minor", Expense::getAmountMinor),
+    // Unknown ids read back as the default category, so they sort under that name too
+    CATEGORY("COALESCE(c.name, '" + CategoryDictionary.DEFAULT_CATEGORY + "')", Expense::getCategory);
+
+    private final String column;
+    private final Function<Expense, Object> key;
+
+    ExpenseSort(String column, Function<Expense, Object> key) {
+        this.column = column;
+        this.key = key;
+    }
+
+    // SQL expression over expenses e (and categories c for CATEGORY)
+    public String column() {
+        return column;
+    }
+
+    // Value of this column on a row, used as the keyset cursor
+    public Object keyOf(Expense expense) {
+        return key.apply(expense);
+    }
+
+    /**
+     * Orders expenses in memory as the database pages them: by this column,
+     * nulls first, then by id.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public Comparator<Expense> comparator() {
+        Comparator<Expense> byKey = Comparator.comparing(e -> (Comparable) key.apply(e),
+                Comparator.nullsFirst(Comparator.naturalOrder()));
+        return byKey.thenComparing(Expense::getId);
+    }
+}
@@ -0,0 +1,131 @@
+package com.expense;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Where users and their expenses are kept. {@link DatabaseHandler} stores
+ * them in SQLite; {@link InMemoryExpenseStore} keeps them in collections, so
+ * the same workload can run against either engine, or without disk I/O.
+ *
+ * Amounts are in minor units (cents). Writes report their own failures and
+ * return false or 0, and bump {@link DataVersions} when rows change.
+ * Expense objects passed in or returned are never kept by the store.
+ */
+
+public interface ExpenseStore extends AutoCloseable {
+
+    void connect() throws SQLException;
+
+    @Override
+    void close();
+
+    // ===== Users =====
+
+    boolean register(User user);
+
+    /**
+     * @return The user's id, or -1 if the username and password do not match
+     */
+    int login(User user);
+
+    // ===== Create, update, delete =====
+
+    /**
+     * Inserts one expense and sets its generated id.
+     */
+    void saveExpense(Expense e, int userId);
+
+    /**
+     * @return The number of expenses saved
+     */
+    int saveExpenses(Iterator<Expense> expenses, int userId);
+
+    default int saveExpenses(List<Expense> expenses, int userId) {
+        return saveExpenses(expenses.iterator(), userId);
+    }
+
+    default int saveExpenses(Stream<Expense> expenses, int userId) {
+        return saveExpenses(expenses.iterator(), userId);
+    }
+
+    boolean updateExpense(Expense e, int userId);
+
+    boolean deleteExpense(Expense e, int userId);
+
+    void deleteAllExpenses(int userId);
+
+    int deleteExpenses(Collection<Integer> ids, int userId);
+
+    int recategorize(Collection<Integer> ids, String category, int userId);
+
+    /**
+     * Moves dates by {@code days}; expenses without a valid date are left alone.
+     */
+    int shiftDates(Collection<Integer> ids, int days, int userId);
+
+    // ===== Reads =====
+
+    /**
+     * @return The expense, or null if the user has none with this id
+     */
+    Expense getExpenseById(int id, int userId);
+
+    int countExpenses(int userId);
+
+    /**
+     * Streams the user's matching expenses with only {@code columns} set
+     * (the id always is). Close the stream, e.g. with try-with-resources.
+     */
+    Stream<Expense> streamExpenses(int userId, ExpenseFilter filter, Set<ExpenseColumn> columns);
+
+    default void forEachExpense(int userId, ExpenseFilter filter, Set<ExpenseColumn> columns,
+            Consumer<? super Expense> action) {
+        try (Stream<Expense> rows = streamExpenses(userId, filter, columns)) {
+            rows.forEach(action);
+        }
+    }
+
+    default List<Expense> getAllExpenses(int userId) {
+        List<Expense> list = new ArrayList<>();
+        forEachExpense(userId, ExpenseFilter.all(), ExpenseColumn.ALL, list::add);
+        return list;
+    }
+
+    /**
+     * One page ordered by (sort column, id), starting after {@code after}
+     * (null for the first page).
+     */
+    List<Expense> getExpensePage(int userId, ExpenseSort sort, boolean ascending, Expense after, int pageSize);
+
+    /**
+     * Expenses dated from {@code from} to {@code to}, both inclusive, in
+     * date then id order.
+     */
+    List<Expense> getExpensesInRange(int userId, LocalDate from, LocalDate to);
+
+    /**
+     * Expenses whose name or description has a word starting with each word
+     * of {@code query}, best matches (name over description) first.
+     */
+    List<Expense> searchExpenses(int userId, String query, int limit);
+
+    // ===== Aggregates =====
+
+    /**
+     * Total spent on each day of the month that has expenses.
+     */
+    Map<LocalDate, Long> getDailyTotals(int userId, YearMonth month);
+
+    /**
+     * Totals by month, by category and overall. Either bound may be null.
+     *
+     * @param includeArchive Whether archived years count too, where the
+     *                       store archives
+     */
+    ReportResult generateReport(int userId, LocalDate from, LocalDate to, boolean includeArchive);
+}
@@ -0,0 +1,142 @@
+package com.expense;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.function.IntSupplier;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Runs one workload against each {@link ExpenseStore} and prints the time
+ * of every phase, so engines are compared on identical calls. SQLite runs
+ * on a fresh temporary file with the configured profile.
+ *
+ * Run: mvn -q compile exec:java -Dexec.mainClass=com.expense.ExpenseStoreBenchmark -Dexec.args="200000"
+ * (argument: expense count)
+ */
+
+public class ExpenseStoreBenchmark {
+
+    private static final String[] CATEGORIES = { "Food", "Transportation", "Utilities", "Entertainment", "Health",
+            "Education", "Shopping", "Rent" };
+    private static final String[] WORDS = { "coffee", "lunch", "taxi", "bus", "power", "water", "cinema",
+            "pharmacy", "books", "shoes", "groceries", "rent", "café", "internet" };
+    private static final LocalDate FIRST_DAY = LocalDate.of(2022, 1, 1);
+    private static final int DAYS = 3 * 365;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+
+        Path file = Files.createTempFile("expense-benchmark-", ".db");
+        try {
+            run("SQLite (" + SqliteProfile.load().getName() + ")", new DatabaseHandler(SqliteProfile.load(), file),
+                    rows);
+        } finally {
+            for (String suffix : List.of("", "-wal", "-shm"))
+                Files.deleteIfExists(Path.of(file + suffix));
+        }
+        run("In memory", new InMemoryExpenseStore(), rows);
+    }
+
+    private static void run(String label, ExpenseStore store, int rows) throws Exception {
+        System.out.println(label + ", " + String.format("%,d", rows) + " expenses:");
+        try (store) {
+            store.connect();
+            User user = new User(null, "bench-" + System.nanoTime(), "secret");
+            store.register(user);
+            int userId = store.login(user);
+            Random random = new Random(42);
+
+            time("bulk insert", () -> store.saveExpenses(
+                    IntStream.range(0, rows).mapToObj(i -> synthetic(random)), userId));
+
+            time("50 pages by date", () -> {
+                Expense last = null;
+                int read = 0;
+                for (int page = 0; page < 50; page++) {
+                    List<Expense> rowsOnPage = store.getExpensePage(userId, ExpenseSort.DATE, false, last, 100);
+                    if (rowsOnPage.isEmpty())
+                        break;
+                    read += rowsOnPage.size();
+                    last = rowsOnPage.get(rowsOnPage.size() - 1);
+                }
+                return read;
+            });
+
+            time("36 month ranges", () -> {
+                int read = 0;
+                for (int m = 0; m < 36; m++) {
+                    YearMonth month = YearMonth.from(FIRST_DAY).plusMonths(m);
+                    read += store.getExpensesInRange(userId, month.atDay(1), month.atEndOfMonth()).size();
+                }
+                return read;
+            });
+
+            time("36 daily totals", () -> {
+                int days = 0;
+                for (int m = 0; m < 36; m++)
+                    days += store.getDailyTotals(userId, YearMonth.from(FIRST_DAY).plusMonths(m)).size();
+                return days;
+            });
+
+            time("12 reports", () -> {
+                int counted = 0;
+                for (int y = 0; y < 3; y++) {
+                    LocalDate from = FIRST_DAY.plusYears(y);
+                    for (int q = 0; q < 4; q++)
+                        counted += store.generateReport(userId, from.plusMonths(3L * q),
+                                from.plusMonths(3L * q + 3).minusDays(1), false).expenseCount();
+                }
+                return counted;
+            });
+
+            time("100 searches", () -> {
+                int hits = 0;
+                for (int i = 0; i < 100; i++)
+                    hits += store.searchExpenses(userId, WORDS[i % WORDS.length].substring(0, 3), 50).size();
+                return hits;
+            });
+
+            List<Integer> ids = new ArrayList<>();
+            try (Stream<Expense> all = store.streamExpenses(userId, ExpenseFilter.all(),
+                    EnumSet.noneOf(ExpenseColumn.class))) {
+                all.forEach(e -> ids.add(e.getId()));
+            }
+
+            time("1,000 updates", () -> {
+                int updated = 0;
+                for (int i = 0; i < 1000 && i < ids.size(); i++) {
+                    Expense e = store.getExpenseById(ids.get(i), userId);
+                    e.setAmountMinor(e.getAmountMinor() + 1);
+                    if (store.updateExpense(e, userId))
+                        updated++;
+                }
+                return updated;
+            });
+
+            time("recategorize 10%", () -> store.recategorize(ids.subList(0, ids.size() / 10), "Gift", userId));
+            time("shift 10% by a week", () -> store.shiftDates(ids.subList(0, ids.size() / 10), 7, userId));
+            time("delete half", () -> store.deleteExpenses(ids.subList(0, ids.size() / 2), userId));
+            time("count", () -> store.countExpenses(userId));
+        }
+        System.out.println();
+    }
+
+    private static Expense synthetic(Random random) {
+        String date = FIRST_DAY.plusDays(random.nextInt(DAYS)).toString();
+        String name = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)];
+        String category = CATEGORIES[random.nextInt(CATEGORIES.length)];
+        String description = random.nextInt(4) == 0 ? WORDS[random.nextInt(WORDS.length)] : "";
+        return new Expense(null, date, name, 100L + random.nextInt(20_000), category, description);
+    }
+
+    private static void time(String phase, IntSupplier work) {
+        long start = System.nanoTime();
+        int result = work.getAsInt();
+        double millis = (System.nanoTime() - start) / 1e6;
+        System.out.printf("  %-22s %10.1f ms  (%,d)%n", phase, millis, result);
+    }
+}
@@ -0,0 +1,425 @@
+package com.expense;
+
+import java.text.Normalizer;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * An {@link ExpenseStore} kept entirely in memory: nothing touches the disk
+ * and everything is gone when the process exits. It answers the same calls
+ * as the SQLite store the same way (generated ids, orderings, category
+ * normalization, prefix search with name matches ranked first), so a
+ * workload can be timed against both, or load-tested without disk I/O.
+ *
+ * Thread-safe: one read-write lock guards all data, so a single instance
+ * can serve every thread of an {@link AsyncDatabaseHandler}.
+ */
+
+public class InMemoryExpenseStore implements ExpenseStore {
+
+    private static final Pattern ACCENTS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+    // Rows a bulk insert adds per hold of the write lock
+    private static final int BATCH_SIZE = 1000;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<String, User> users = new HashMap<>(); // by username
+    private final Map<Integer, UserExpenses> expenses = new HashMap<>(); // by user id
+    private int nextUserId = 1;
+    private int nextExpenseId = 1;
+
+    // One user's expenses by id, and by day for range queries; undated rows are only in byId
+    private static final class UserExpenses {
+        final NavigableMap<Integer, Expense> byId = new TreeMap<>();
+        final NavigableMap<Integer, NavigableMap<Integer, Expense>> byDay = new TreeMap<>();
+        // Search words, split once per write rather than once per row per search
+        final Map<Integer, Words> words = new HashMap<>();
+
+        void put(Expense e) {
+            byId.put(e.getId(), e);
+            words.put(e.getId(), new Words(words(e.getName()), words(e.getDescription())));
+            if (e.getEpochDay() != DateKeys.NONE)
+                byDay.computeIfAbsent(e.getEpochDay(), k -> new TreeMap<>()).put(e.getId(), e);
+        }
+
+        Expense remove(int id) {
+            Expense e = byId.remove(id);
+            words.remove(id);
+            if (e != null && e.getEpochDay() != DateKeys.NONE) {
+                NavigableMap<Integer, Expense> day = byDay.get(e.getEpochDay());
+                day.remove(id);
+                if (day.isEmpty())
+                    byDay.remove(e.getEpochDay());
+            }
+            return e;
+        }
+
+        // Date then id order
+        Stream<Expense> inRange(int fromDay, int toDay) {
+            return byDay.subMap(fromDay, true, toDay, true).values().stream().flatMap(day -> day.values().stream());
+        }
+    }
+
+    private record Words(List<String> name, List<String> description) {
+
+        // 0 if some term starts no word; otherwise 10 per term in the name plus 1 per term in the description
+        int score(List<String> terms) {
+            int score = 0;
+            for (String term : terms) {
+                boolean inName = startsAny(name, term);
+                boolean inDescription = startsAny(description, term);
+                if (!inName && !inDescription)
+                    return 0;
+                score += (inName ? 10 : 0) + (inDescription ? 1 : 0);
+            }
+            return score;
+        }
+
+        private static boolean startsAny(List<String> words, String prefix) {
+            for (String word : words) {
+                if (word.startsWith(prefix))
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    @Override
+    public void connect() {
+    }
+
+    // Keeps the data: an AsyncDatabaseHandler closes the shared instance once per thread
+    @Override
+    public void close() {
+    }
+
+    // ===== Users =====
+
+    @Override
+    public boolean register(User user) {
+        return write(() -> {
+            if (users.containsKey(user.getUsername())) {
+                System.err.println("Register failed: username " + user.getUsername() + " exists");
+                return false;
+            }
+            users.put(user.getUsername(), new User(nextUserId++, user.getUsername(), user.getPassword()));
+            return true;
+        });
+    }
+
+    @Override
+    public int login(User user) {
+        return read(() -> {
+            User stored = users.get(user.getUsername());
+            return stored != null && Objects.equals(stored.getPassword(), user.getPassword()) ? stored.getId() : -1;
+        });
+    }
+
+    // ===== Create, update, delete =====
+
+    @Override
+    public void saveExpense(Expense e, int userId) {
+        write(() -> {
+            Expense stored = stored(e, nextExpenseId++);
+            of(userId).put(stored);
+            e.setId(stored.getId());
+            DataVersions.bump(userId);
+            return null;
+        });
+    }
+
+    // Rows are pulled outside the lock and added a batch at a time, so a slow iterator never blocks readers
+    @Override
+    public int saveExpenses(Iterator<Expense> rows, int userId) {
+        int saved = 0;
+        List<Expense> batch = new ArrayList<>(BATCH_SIZE);
+        while (rows.hasNext()) {
+            batch.clear();
+            while (batch.size() < BATCH_SIZE && rows.hasNext())
+                batch.add(rows.next());
+
+            saved += write(() -> {
+                UserExpenses mine = of(userId);
+                for (Expense e : batch)
+                    mine.put(stored(e, nextExpenseId++));
+                return batch.size();
+            });
+            DataVersions.bumpIfChanged(userId, batch.size());
+        }
+        return saved;
+    }
+
+    @Override
+    public boolean updateExpense(Expense e, int userId) {
+        return write(() -> {
+            UserExpenses mine = expenses.get(userId);
+            if (e.getId() == null || mine == null || mine.remove(e.getId()) == null)
+                return false;
+            mine.put(stored(e, e.getId()));
+            return DataVersions.bumpIfChanged(userId, 1);
+        });
+    }
+
+    @Override
+    public boolean deleteExpense(Expense e, int userId) {
+        return deleteExpenses(List.of(e.getId()), userId) > 0;
+    }
+
+    @Override
+    public void deleteAllExpenses(int userId) {
+        write(() -> {
+            UserExpenses removed = expenses.remove(userId);
+            DataVersions.bumpIfChanged(userId, removed == null ? 0 : removed.byId.size());
+            return null;
+        });
+    }
+
+    @Override
+    public int deleteExpenses(Collection<Integer> ids, int userId) {
+        return editEach(ids, userId, (mine, e) -> true);
+    }
+
+    @Override
+    public int recategorize(Collection<Integer> ids, String category, int userId) {
+        String normalized = CategoryNormalizer.shared().normalize(category);
+        return editEach(ids, userId, (mine, e) -> {
+            e.setCategory(normalized);
+            mine.put(e);
+            return true;
+        });
+    }
+
+    @Override
+    public int shiftDates(Collection<Integer> ids, int days, int userId) {
+        return editEach(ids, userId, (mine, e) -> {
+            boolean dated = e.getEpochDay() != DateKeys.NONE;
+            if (dated)
+                e.setDate(LocalDate.ofEpochDay(e.getEpochDay() + days).toString());
+            mine.put(e);
+            return dated;
+        });
+    }
+
+    // Takes each selected expense out of the indexes; edit puts it back and says whether it changed
+    private interface Edit {
+        boolean apply(UserExpenses mine, Expense e);
+    }
+
+    private int editEach(Collection<Integer> ids, int userId, Edit edit) {
+        int changed = write(() -> {
+            UserExpenses mine = expenses.get(userId);
+            if (mine == null)
+                return 0;
+
+            int count = 0;
+            for (int id : new HashSet<>(ids)) {
+                Expense e = mine.remove(id);
+                if (e != null && edit.apply(mine, e))
+                    count++;
+            }
+            return count;
+        });
+        DataVersions.bumpIfChanged(userId, changed);
+        return changed;
+    }
+
+    // ===== Reads =====
+
+    @Override
+    public Expense getExpenseById(int id, int userId) {
+        return read(() -> {
+            Expense e = rowsOf(userId).get(id);
+            return e == null ? null : new Expense(e);
+        });
+    }
+
+    @Override
+    public int countExpenses(int userId) {
+        return read(() -> rowsOf(userId).size());
+    }
+
+    // Returns every field, whatever the projection; the rows are copied up front
+    @Override
+    public Stream<Expense> streamExpenses(int userId, ExpenseFilter filter, Set<ExpenseColumn> columns) {
+        List<Expense> rows = read(() -> {
+            UserExpenses mine = expenses.get(userId);
+            if (mine == null)
+                return List.<Expense>of();
+
+            Stream<Expense> matching = filter.getFrom() == null && filter.getTo() == null
+                    ? mine.byId.values().stream()
+                    : mine.inRange(toDay(filter.getFrom(), Integer.MIN_VALUE), toDay(filter.getTo(), Integer.MAX_VALUE));
+            if (filter.getCategory() != null)
+                matching = matching.filter(e -> filter.getCategory().equals(e.getCategory()));
+            return matching.map(Expense::new).toList();
+        });
+        return rows.stream();
+    }
+
+    // Ordered as SQLite pages
+    @Override
+    public List<Expense> getExpensePage(int userId, ExpenseSort sort, boolean ascending, Expense after,
+            int pageSize) {
+        Comparator<Expense> order = ascending ? sort.comparator() : sort.comparator().reversed();
+        return read(() -> first(rowsOf(userId).values().stream()
+                .filter(e -> after == null || order.compare(e, after) > 0), order, pageSize)
+                .stream()
+                .map(Expense::new)
+                .toList());
+    }
+
+    @Override
+    public List<Expense> getExpensesInRange(int userId, LocalDate from, LocalDate to) {
+        return read(() -> {
+            UserExpenses mine = expenses.get(userId);
+            if (mine == null)
+                return List.<Expense>of();
+            return mine.inRange((int) from.toEpochDay(), (int) to.toEpochDay()).map(Expense::new).toList();
+        });
+    }
+
+    /**
+     * Every word of the query must start a word of the name or description,
+     * ignoring case and accents. A word found in the name counts ten times
+     * one found in the description, as the SQLite store's bm25 weights do.
+     */
+    @Override
+    public List<Expense> searchExpenses(int userId, String query, int limit) {
+        List<String> terms = words(query);
+        if (terms.isEmpty())
+            return new ArrayList<>();
+
+        record Hit(Expense expense, int score) {
+        }
+
+        Comparator<Hit> best = Comparator.comparingInt(Hit::score).reversed()
+                .thenComparing(hit -> hit.expense().getId());
+        return read(() -> {
+            UserExpenses mine = expenses.get(userId);
+            if (mine == null)
+                return List.<Expense>of();
+
+            Stream<Hit> hits = mine.byId.values().stream()
+                    .map(e -> new Hit(e, mine.words.get(e.getId()).score(terms)))
+                    .filter(hit -> hit.score() > 0);
+            return first(hits, best, limit).stream().map(hit -> new Expense(hit.expense())).toList();
+        });
+    }
+
+    // ===== Aggregates =====
+
+    @Override
+    public Map<LocalDate, Long> getDailyTotals(int userId, YearMonth month) {
+        return read(() -> {
+            Map<LocalDate, Long> totals = new TreeMap<>();
+            UserExpenses mine = expenses.get(userId);
+            if (mine == null)
+                return totals;
+
+            mine.byDay.subMap((int) month.atDay(1).toEpochDay(), true, (int) month.atEndOfMonth().toEpochDay(), true)
+                    .forEach((day, rows) -> totals.put(LocalDate.ofEpochDay(day),
+                            rows.values().stream().mapToLong(Expense::getAmountMinor).sum()));
+            return totals;
+        });
+    }
+
+    // There is no archive in memory, so includeArchive changes nothing
+    @Override
+    public ReportResult generateReport(int userId, LocalDate from, LocalDate to, boolean includeArchive) {
+        return read(() -> {
+            ReportGenerator.Accumulator acc = new ReportGenerator.Accumulator();
+            UserExpenses mine = expenses.get(userId);
+            if (mine != null) {
+                Stream<Expense> rows = from == null && to == null
+                        ? mine.byId.values().stream()
+                        : mine.inRange(toDay(from, Integer.MIN_VALUE), toDay(to, Integer.MAX_VALUE));
+                rows.forEach(e -> {
+                    acc.addMonth(e.getMonthKey(), e.getAmountMinor(), 1);
+                    acc.addCategory(e.getCategory(), e.getAmountMinor());
+                });
+            }
+            return acc.toResult(userId, from, to);
+        });
+    }
+
+    // ===== Helpers =====
+
+    // A private copy with its id set and category normalized, as SQLite would store it
+    private static Expense stored(Expense e, int id) {
+        Expense copy = new Expense(e);
+        copy.setId(id);
+        copy.setCategory(CategoryNormalizer.shared().normalize(e.getCategory()));
+        copy.setDisplayAmount(null);
+        return copy;
+    }
+
+    private UserExpenses of(int userId) {
+        return expenses.computeIfAbsent(userId, id -> new UserExpenses());
+    }
+
+    private NavigableMap<Integer, Expense> rowsOf(int userId) {
+        UserExpenses mine = expenses.get(userId);
+        return mine == null ? Collections.emptyNavigableMap() : mine.byId;
+    }
+
+    // The n smallest elements in order, without sorting them all
+    private static <T> List<T> first(Stream<T> items, Comparator<? super T> order, int n) {
+        PriorityQueue<T> kept = new PriorityQueue<>(order.reversed());
+        items.forEach(item -> {
+            if (kept.size() < n) {
+                kept.add(item);
+            } else if (n > 0 && order.compare(item, kept.peek()) < 0) {
+                kept.poll();
+                kept.add(item);
+            }
+        });
+        List<T> sorted = new ArrayList<>(kept);
+        sorted.sort(order);
+        return sorted;
+    }
+
+    private static int toDay(LocalDate date, int unbounded) {
+        return date == null ? unbounded : (int) date.toEpochDay();
+    }
+
+    // Lower-cased words with accents removed, as FTS5's unicode61 tokenizer splits them
+    private static List<String> words(String text) {
+        if (text == null)
+            return List.of();
+
+        // Text already in NFD still carries its accents as combining marks, so always strip them
+        String folded = ACCENTS.matcher(Normalizer.normalize(text.toLowerCase(Locale.ROOT), Normalizer.Form.NFD))
+                .replaceAll("");
+        List<String> words = new ArrayList<>();
+        for (String word : SEPARATORS.split(folded)) {
+            if (!word.isEmpty())
+                words.add(word);
+        }
+        return words;
+    }
+
+    private <T> T read(Supplier<T> query) {
+        lock.readLock().lock();
+        try {
+            return query.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private <T> T write(Supplier<T> update) {
+        lock.writeLock().lock();
+        try {
+            return update.get();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.expense;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Conversions between decimal amounts and integer minor units (cents).
+ * Amounts are stored and summed as {@code long} cents so totals are exact;
+ * they only become floating point at the display edge.
+ */
+
+public final class Money {
+
+    public static final int SCALE = 2;
+
+    private Money() {
+    }
+
+    public static long toMinor(double major) {
+        return BigDecimal.valueOf(major)
+                .setScale(SCALE, RoundingMode.HALF_UP)
+                .movePointRight(SCALE)
+                .longValueExact();
+    }
+
+    /**
+     * Parses a decimal string such as "12.5" into minor units (1250).
+     *
+     * @throws NumberFormatException If the text is not a finite decimal number
+     *                               or does not fit in a long
+     */
+
+    public static long parseMinor(String text) {
+        try {
+            return new BigDecimal(text.trim())
+                    .setScale(SCALE, RoundingMode.HALF_UP)
+                    .movePointRight(SCALE)
+                    .longValueExact();
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Amount out of range: " + text);
+        }
+    }
+
+    public static double toMajor(long minor) {
+        return minor / 100.0;
+    }
+
+    // Plain decimal form, e.g. 1250 -> "12.50"
+    public static String format(long minor) {
+        return BigDecimal.valueOf(minor, SCALE).toPlainString();
+    }
+}
@@ -1,105 +1,224 @@
 package com.expense;
 
 import java.sql.*;
+import java.time.LocalDate;
 import java.util.*;
 
 /**
- * The ReportGenerator class provides summarized reports
- * of expenses by month, category, and overall totals.
+ * The ReportGenerator class builds one user's report from SQLite for
+ * {@link DatabaseHandler#generateReport}: totals by month, by category, and
+ * overall, optionally limited to a date range.
+ * All amounts are exact sums in minor units (cents); see {@link Money}.
+ *
+ * Each report is one query. Without a date range it reads the rollup tables
+ * kept by {@link ExpenseRollups}, one row per month or category. With a
+ * range it makes a single pass over the user's expenses in that range,
+ * grouped by (month, category), and folds those cells into all three
+ * summaries.
+ *
+ * Rollups and the hot table only hold expenses that have not been archived.
+ * Reports that include the archive scan the hot table, then attach the
+ * archived years in the range (see {@link ExpenseArchive}) a group at a
+ * time and scan each group through one view, adding into the same totals.
+ *
+ * Headless run: mvn -q compile exec:java -Dexec.mainClass=com.expense.ReportGenerator -Dexec.args="1 csv 2025-01-01 2025-03-31"
+ * (arguments: user id, then optionally txt, csv or json, and a from and to
+ * date; add --archive anywhere to include archived years)
  */
 
 public class ReportGenerator {
 
     private final Connection connection;
+    private final ExpenseArchive archive;
 
-    public ReportGenerator(Connection connection) {
+    ReportGenerator(Connection connection, ExpenseArchive archive) {
         this.connection = connection;
+        this.archive = archive;
     }
 
     /**
-     * Generates a summary of total expenses per month.
-     *
-     * @return A map where the key is the month (e.g. "2025-11")
-     *         and the value is the total amount spent.
+     * Generates a user's report over all of their expenses.
      */
 
-    public Map<String, Double> generateMonthlySummary() {
-        Map<String, Double> summary = new LinkedHashMap<>();
-
-        String sql = """
-                    SELECT substr(date, 1, 7) AS month, SUM(amount) AS total
-                    FROM expenses
-                    GROUP BY month
-                    ORDER BY month ASC
-                """;
-
-        try (Statement stmt = connection.createStatement();
-                ResultSet rs = stmt.executeQuery(sql)) {
-
-            while (rs.next()) {
-                summary.put(rs.getString("month"), rs.getDouble("total"));
-            }
+    public ReportResult generate(int userId) {
+        return generate(userId, null, null);
+    }
 
-        } catch (SQLException e) {
-            System.err.println("SQL Error (monthly summary): " + e.getMessage());
-        }
+    /**
+     * Generates a user's report for expenses dated from {@code from} to
+     * {@code to}, both inclusive. Either bound may be null.
+     *
+     * @return The report; empty if the query failed
+     */
 
-        return summary;
+    public ReportResult generate(int userId, LocalDate from, LocalDate to) {
+        return generate(userId, from, to, false);
     }
 
     /**
-     * Generates a summary of total expenses per category.
-     *
-     * @return A map where the key is the category name
-     *         and the value is the total amount spent in that category.
+     * Like {@link #generate(int, LocalDate, LocalDate)}, optionally over
+     * archived years too.
      */
 
-    public Map<String, Double> generateCategorySummary() {
+    public ReportResult generate(int userId, LocalDate from, LocalDate to, boolean includeArchive) {
+        Accumulator acc = new Accumulator();
+
+        try {
+            if (includeArchive) {
+                scanRange("expenses", userId, from, to, acc);
+                for (List<Integer> years : archive.attachableGroups(from == null ? null : from.getYear(),
+                        to == null ? null : to.getYear())) {
+                    try (ExpenseArchive.Attachment attached = archive.attach(connection, years, false)) {
+                        scanRange(ExpenseArchive.VIEW, userId, from, to, acc);
+                    }
+                }
+            } else if (from == null && to == null) {
+                readRollups(userId, acc);
+            } else {
+                scanRange("expenses", userId, from, to, acc);
+            }
+        } catch (SQLException e) {
+            System.err.println("SQL Error (report): " + e.getMessage());
+            return ReportResult.empty(userId, from, to);
+        }
 
-        Map<String, Double> summary = new LinkedHashMap<>();
+        return acc.toResult(userId, from, to);
+    }
 
+    // Month and category rows for the user, in one round trip
+    private void readRollups(int userId, Accumulator acc) throws SQLException {
         String sql = """
-                    SELECT category, SUM(amount) AS total
-                    FROM expenses
-                    GROUP BY category
-                    ORDER BY total DESC
+                    SELECT 'M' AS kind, month AS bucket, NULL AS category, total_minor, expense_count
+                    FROM expense_monthly_totals
+                    WHERE user_id = ?
+                    UNION ALL
+                    SELECT 'C', t.category_id, c.name, t.total_minor, t.expense_count
+                    FROM expense_category_totals t
+                    LEFT JOIN categories c ON c.id = t.category_id
+                    WHERE t.user_id = ?
                 """;
 
-        try (Statement stmt = connection.createStatement();
-                ResultSet rs = stmt.executeQuery(sql)) {
-
-            while (rs.next()) {
-                summary.put(rs.getString("category"), rs.getDouble("total"));
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setInt(1, userId);
+            stmt.setInt(2, userId);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    long total = rs.getLong("total_minor");
+                    if (rs.getString("kind").equals("M")) {
+                        int month = rs.getInt("bucket");
+                        acc.addMonth(month == ExpenseRollups.NO_KEY ? DateKeys.NONE : month, total,
+                                rs.getInt("expense_count"));
+                    } else {
+                        acc.addCategory(rs.getString("category"), total);
+                    }
+                }
             }
-
-        } catch (SQLException e) {
-            System.err.println("SQL Error (category summary): " + e.getMessage());
         }
-
-        return summary;
     }
 
     /**
-     * Calculates the overall total amount of all expenses.
-     *
-     * @return The total sum of all expenses.
+     * One pass over the range through idx_expenses_user_day (per table, for
+     * the archive view). A missing bound adds no day predicate, so without
+     * a range rows with an unparseable date count, as they do in the rollups.
      */
+    private void scanRange(String table, int userId, LocalDate from, LocalDate to, Accumulator acc)
+            throws SQLException {
+        String range = (from == null ? "" : " AND e.day >= ?") + (to == null ? "" : " AND e.day <= ?");
+        String sql = """
+                    SELECT e.month, c.name AS category, SUM(e.amount_minor) AS total, COUNT(*) AS n
+                    FROM %s e
+                    LEFT JOIN categories c ON c.id = e.category_id
+                    WHERE e.user_id = ?%s
+                    GROUP BY e.month, e.category_id
+                """.formatted(table, range);
+
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            int i = 1;
+            stmt.setInt(i++, userId);
+            if (from != null)
+                stmt.setInt(i++, (int) from.toEpochDay());
+            if (to != null)
+                stmt.setInt(i, (int) to.toEpochDay());
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    int month = rs.getInt("month");
+                    if (rs.wasNull())
+                        month = DateKeys.NONE;
+                    long total = rs.getLong("total");
+
+                    acc.addMonth(month, total, rs.getInt("n"));
+                    acc.addCategory(rs.getString("category"), total);
+                }
+            }
+        }
+    }
+
+    // Folds month and category rows into the three summaries; also used by InMemoryExpenseStore
+    static final class Accumulator {
+        private final Map<Integer, Long> byMonth = new TreeMap<>();
+        private final Map<String, Long> byCategory = new HashMap<>();
+        private long total;
+        private int count;
+
+        void addMonth(int monthKey, long amountMinor, int expenses) {
+            byMonth.merge(monthKey, amountMinor, Long::sum);
+            total += amountMinor;
+            count += expenses;
+        }
 
-    public double generateTotalSummary() {
+        void addCategory(String name, long amountMinor) {
+            byCategory.merge(name == null ? CategoryDictionary.DEFAULT_CATEGORY : name, amountMinor, Long::sum);
+        }
 
-        String sql = "SELECT SUM(amount) AS total FROM expenses";
+        ReportResult toResult(int userId, LocalDate from, LocalDate to) {
+            // Month keys sort chronologically, with "Unknown" (NONE) first
+            Map<String, Long> monthly = new LinkedHashMap<>();
+            byMonth.forEach((month, sum) -> monthly.merge(DateKeys.monthLabel(month), sum, Long::sum));
 
-        try (Statement stmt = connection.createStatement();
-                ResultSet rs = stmt.executeQuery(sql)) {
+            Map<String, Long> categories = new LinkedHashMap<>();
+            byCategory.entrySet().stream()
+                    .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                    .forEach(e -> categories.put(e.getKey(), e.getValue()));
 
-            if (rs.next()) {
-                return rs.getDouble("total");
-            }
+            return new ReportResult(userId, from, to, monthly, categories, total, count);
+        }
+    }
 
+    public static void main(String[] args) {
+        List<String> positional = new ArrayList<>(Arrays.asList(args));
+        boolean includeArchive = positional.remove("--archive");
+        args = positional.toArray(new String[0]);
+
+        if (args.length < 1) {
+            System.err.println("Usage: ReportGenerator <userId> [txt|csv|json] [from] [to] [--archive]");
+            System.exit(2);
+        }
+
+        int userId = Integer.parseInt(args[0]);
+        String format = args.length > 1 ? args[1] : "txt";
+        LocalDate from = args.length > 2 ? LocalDate.parse(args[2]) : null;
+        LocalDate to = args.length > 3 ? LocalDate.parse(args[3]) : null;
+
+        DatabaseHandler db = new DatabaseHandler();
+        int status = 0;
+        try {
+            db.connect();
+            ReportResult report = db.generateReport(userId, from, to, includeArchive);
+
+            switch (format) {
+                case "csv" -> System.out.print(report.toCsv());
+                case "json" -> System.out.println(report.toJson().toString(4));
+                default -> System.out.print(report.toText());
+            }
         } catch (SQLException e) {
-            System.err.println("SQL Error (total summary): " + e.getMessage());
+            System.err.println("Report failed: " + e.getMessage());
+            status = 1;
+        } finally {
+            db.close();
         }
 
-        return 0.0;
+        System.exit(status);
     }
 }
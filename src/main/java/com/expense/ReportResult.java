@@ -0,0 +1,97 @@
+package com.expense;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.*;
+
+import org.json.JSONObject;
+
+/**
+ * One user's expense report, as produced by {@link ReportGenerator}.
+ * All amounts are exact sums in minor units (cents); see {@link Money}.
+ *
+ * @param from           First day included, or null for no lower bound
+ * @param to             Last day included, or null for no upper bound
+ * @param monthlyTotals  Month label (e.g. "2025-11") to total, oldest first
+ * @param categoryTotals Category name to total, largest first
+ */
+
+public record ReportResult(int userId, LocalDate from, LocalDate to,
+        Map<String, Long> monthlyTotals, Map<String, Long> categoryTotals,
+        long totalMinor, int expenseCount) {
+
+    public ReportResult {
+        monthlyTotals = Collections.unmodifiableMap(new LinkedHashMap<>(monthlyTotals));
+        categoryTotals = Collections.unmodifiableMap(new LinkedHashMap<>(categoryTotals));
+    }
+
+    public static ReportResult empty(int userId, LocalDate from, LocalDate to) {
+        return new ReportResult(userId, from, to, Map.of(), Map.of(), 0L, 0);
+    }
+
+    public boolean hasRange() {
+        return from != null || to != null;
+    }
+
+    // e.g. "2025-01-01 to 2025-03-31", "from 2025-01-01", "all dates"
+    public String describeRange() {
+        if (from != null && to != null)
+            return from + " to " + to;
+        if (from != null)
+            return "from " + from;
+        if (to != null)
+            return "until " + to;
+        return "all dates";
+    }
+
+    public String toText() {
+        StringBuilder sb = new StringBuilder();
+        if (hasRange())
+            sb.append("Period: ").append(describeRange()).append("\n\n");
+
+        sb.append("=== Monthly Summary ===\n");
+        monthlyTotals.forEach((m, v) -> sb.append(m).append(": ").append(Money.format(v)).append("\n"));
+
+        sb.append("\n=== Category Summary ===\n");
+        categoryTotals.forEach((c, v) -> sb.append(c).append(": ").append(Money.format(v)).append("\n"));
+
+        sb.append("\n=== Total Expenses ===\n");
+        sb.append(Money.format(totalMinor)).append("\n");
+
+        return sb.toString();
+    }
+
+    public String toCsv() {
+        StringBuilder sb = new StringBuilder("Section,Key,Value\n");
+
+        for (var e : monthlyTotals.entrySet()) {
+            sb.append("Monthly,").append(CSVHandler.quote(e.getKey())).append(",").append(Money.format(e.getValue())).append("\n");
+        }
+
+        for (var e : categoryTotals.entrySet()) {
+            sb.append("Category,").append(CSVHandler.quote(e.getKey())).append(",").append(Money.format(e.getValue())).append("\n");
+        }
+
+        sb.append("Total,All,").append(Money.format(totalMinor)).append("\n");
+        return sb.toString();
+    }
+
+    public JSONObject toJson() {
+        // Exact decimals (e.g. 12.50) rather than binary doubles
+        Map<String, BigDecimal> monthlyDecimal = new LinkedHashMap<>();
+        monthlyTotals.forEach((k, v) -> monthlyDecimal.put(k, BigDecimal.valueOf(v, Money.SCALE)));
+        Map<String, BigDecimal> categoryDecimal = new LinkedHashMap<>();
+        categoryTotals.forEach((k, v) -> categoryDecimal.put(k, BigDecimal.valueOf(v, Money.SCALE)));
+
+        JSONObject json = new JSONObject();
+        if (from != null)
+            json.put("from", from.toString());
+        if (to != null)
+            json.put("to", to.toString());
+        json.put("monthly", monthlyDecimal);
+        json.put("category", categoryDecimal);
+        json.put("total", BigDecimal.valueOf(totalMinor, Money.SCALE));
+        json.put("count", expenseCount);
+        return json;
+    }
+}
@@ -0,0 +1,376 @@
+package com.expense;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * The SchemaMigrator class upgrades an expenses database in place.
+ * The schema version is stored in SQLite's PRAGMA user_version, and every
+ * migration newer than that version runs once, in order, inside its own
+ * transaction.
+ */
+
+public class SchemaMigrator {
+
+    // Data fix-up that cannot be expressed in SQL alone
+    private interface Step {
+        void apply(Connection connection) throws SQLException;
+    }
+
+    // afterStatements runs in the same transaction, after the SQL statements
+    private record Migration(int version, String description, List<String> statements, Step afterStatements) {
+
+        Migration(int version, String description, List<String> statements) {
+            this(version, description, statements, null);
+        }
+    }
+
+    // Append new migrations at the end; never edit one that has shipped
+    private static final List<Migration> MIGRATIONS = List.of(
+            new Migration(1, "create users and expenses tables", List.of(
+                    """
+                    CREATE TABLE IF NOT EXISTS users (
+                        id INTEGER PRIMARY KEY AUTOINCREMENT,
+                        username TEXT UNIQUE NOT NULL,
+                        password TEXT NOT NULL
+                    )
+                    """,
+                    """
+                    CREATE TABLE IF NOT EXISTS expenses (
+                        id INTEGER PRIMARY KEY AUTOINCREMENT,
+                        date TEXT,
+                        name TEXT,
+                        amount REAL,
+                        category TEXT,
+                        description TEXT,
+                        user_id INTEGER,
+                        FOREIGN KEY(user_id) REFERENCES users(id)
+                    )
+                    """)),
+
+            new Migration(2, "covering index for per-user date ranges", List.of(
+                    """
+                    CREATE INDEX IF NOT EXISTS idx_expenses_user_date
+                    ON expenses (user_id, date, amount)
+                    """)),
+
+            new Migration(3, "covering index for per-user category totals", List.of(
+                    """
+                    CREATE INDEX IF NOT EXISTS idx_expenses_user_category
+                    ON expenses (user_id, category, amount)
+                    """)),
+
+            new Migration(4, "indexes for sorting the expense table by name and amount", List.of(
+                    """
+                    CREATE INDEX IF NOT EXISTS idx_expenses_user_name
+                    ON expenses (user_id, name)
+                    """,
+                    """
+                    CREATE INDEX IF NOT EXISTS idx_expenses_user_amount
+                    ON expenses (user_id, amount)
+                    """)),
+
+            // Indexes on amount have to go before the column can be dropped
+            new Migration(5, "store amounts as integer cents in amount_minor", List.of(
+                    "DROP INDEX IF EXISTS idx_expenses_user_date",
+                    "DROP INDEX IF EXISTS idx_expenses_user_category",
+                    "DROP INDEX IF EXISTS idx_expenses_user_amount",
+                    "ALTER TABLE expenses ADD COLUMN amount_minor INTEGER NOT NULL DEFAULT 0",
+                    "UPDATE expenses SET amount_minor = CAST(ROUND(COALESCE(amount, 0) * 100) AS INTEGER)",
+                    "ALTER TABLE expenses DROP COLUMN amount",
+                    """
+                    CREATE INDEX idx_expenses_user_date
+                    ON expenses (user_id, date, amount_minor)
+                    """,
+                    """
+                    CREATE INDEX idx_expenses_user_category
+                    ON expenses (user_id, category, amount_minor)
+                    """,
+                    """
+                    CREATE INDEX idx_expenses_user_amount
+                    ON expenses (user_id, amount_minor)
+                    """)),
+
+            // day = days since 1970-01-01, month = yyyymm; NULL for unparseable dates.
+            // Only what DateKeys parses gets keys: julianday() also takes times, numbers and 'now',
+            // and date() keeps 2024-02-30, but with a modifier it rolls impossible days over
+            new Migration(6, "integer day and month columns for range and month queries", List.of(
+                    "ALTER TABLE expenses ADD COLUMN day INTEGER",
+                    "ALTER TABLE expenses ADD COLUMN month INTEGER",
+                    """
+                    UPDATE expenses
+                    SET day = CAST(julianday(trim(date)) - 2440587.5 AS INTEGER),
+                        month = CAST(strftime('%Y%m', trim(date)) AS INTEGER)
+                    WHERE date(trim(date), '+0 days') = trim(date)
+                    """,
+                    """
+                    CREATE INDEX idx_expenses_user_day
+                    ON expenses (user_id, day, amount_minor)
+                    """,
+                    """
+                    CREATE INDEX idx_expenses_user_month
+                    ON expenses (user_id, month, amount_minor)
+                    """)),
+
+            new Migration(7, "category dictionary with normalized category ids", List.of(
+                    """
+                    CREATE TABLE categories (
+                        id INTEGER PRIMARY KEY,
+                        name TEXT UNIQUE NOT NULL
+                    )
+                    """,
+                    "ALTER TABLE expenses ADD COLUMN category_id INTEGER REFERENCES categories(id)"),
+                    SchemaMigrator::assignCategoryIds),
+
+            new Migration(8, "drop category text in favour of category_id", List.of(
+                    "DROP INDEX IF EXISTS idx_expenses_user_category",
+                    "ALTER TABLE expenses DROP COLUMN category",
+                    """
+                    CREATE INDEX idx_expenses_user_category
+                    ON expenses (user_id, category_id, amount_minor)
+                    """)),
+
+            // Triggers keep the rollups exact in the same transaction as each write
+            new Migration(9, "per-user monthly and category rollup tables", concat(
+                    ExpenseRollups.createTable(ExpenseRollups.MONTHLY_TABLE, "month"),
+                    ExpenseRollups.createTable(ExpenseRollups.CATEGORY_TABLE, "category_id"),
+                    List.of(
+                            ExpenseRollups.trigger("trg_expenses_rollup_insert", "AFTER INSERT", false, true),
+                            ExpenseRollups.trigger("trg_expenses_rollup_delete", "AFTER DELETE", true, false),
+                            ExpenseRollups.trigger("trg_expenses_rollup_update",
+                                    "AFTER UPDATE OF user_id, month, category_id, amount_minor", true, true))),
+                    ExpenseRollups::rebuild),
+
+            // External-content index: text lives only in expenses, triggers mirror changes
+            new Migration(10, "full-text search over expense name and description", List.of(
+                    """
+                    CREATE VIRTUAL TABLE expenses_fts USING fts5(
+                        name, description,
+                        content = 'expenses', content_rowid = 'id',
+                        tokenize = 'unicode61 remove_diacritics 2'
+                    )
+                    """,
+                    """
+                    CREATE TRIGGER trg_expenses_fts_insert AFTER INSERT ON expenses
+                    BEGIN
+                        INSERT INTO expenses_fts (rowid, name, description)
+                        VALUES (NEW.id, NEW.name, NEW.description);
+                    END
+                    """,
+                    """
+                    CREATE TRIGGER trg_expenses_fts_delete AFTER DELETE ON expenses
+                    BEGIN
+                        INSERT INTO expenses_fts (expenses_fts, rowid, name, description)
+                        VALUES ('delete', OLD.id, OLD.name, OLD.description);
+                    END
+                    """,
+                    """
+                    CREATE TRIGGER trg_expenses_fts_update AFTER UPDATE OF name, description ON expenses
+                    BEGIN
+                        INSERT INTO expenses_fts (expenses_fts, rowid, name, description)
+                        VALUES ('delete', OLD.id, OLD.name, OLD.description);
+                        INSERT INTO expenses_fts (rowid, name, description)
+                        VALUES (NEW.id, NEW.name, NEW.description);
+                    END
+                    """,
+                    "INSERT INTO expenses_fts (expenses_fts) VALUES ('rebuild')")));
+
+    // A hot query and the index its plan must search
+    private record HotQuery(String description, String index, String sql) {
+    }
+
+    // The per-user queries the indexes above exist for; each must be an index search, never a table scan
+    private static final List<HotQuery> HOT_QUERIES = List.of(
+            new HotQuery("expense page by date", "idx_expenses_user_date", """
+                    SELECT * FROM expenses
+                    WHERE user_id = 1 AND (date, id) < ('2025-01-01', 100)
+                    ORDER BY date DESC, id DESC LIMIT 100
+                    """),
+            new HotQuery("expense page by name", "idx_expenses_user_name", """
+                    SELECT * FROM expenses
+                    WHERE user_id = 1 AND (name, id) > ('coffee', 100)
+                    ORDER BY name, id LIMIT 100
+                    """),
+            new HotQuery("expense page by amount", "idx_expenses_user_amount", """
+                    SELECT * FROM expenses
+                    WHERE user_id = 1 AND (amount_minor, id) > (1000, 100)
+                    ORDER BY amount_minor, id LIMIT 100
+                    """),
+            new HotQuery("expense page by category name", "idx_expenses_user_category", """
+                    SELECT e.* FROM expenses e LEFT JOIN categories c ON c.id = e.category_id
+                    WHERE e.user_id = 1 AND (COALESCE(c.name, 'Other'), e.id) > ('Food', 100)
+                    ORDER BY COALESCE(c.name, 'Other'), e.id LIMIT 100
+                    """),
+            new HotQuery("expenses in a date range", "idx_expenses_user_day", """
+                    SELECT * FROM expenses
+                    WHERE user_id = 1 AND day BETWEEN 20089 AND 20453
+                    ORDER BY day, id
+                    """),
+            new HotQuery("total of a date range", "idx_expenses_user_day", """
+                    SELECT SUM(amount_minor)
+                    FROM expenses
+                    WHERE user_id = 1 AND day BETWEEN 20089 AND 20453
+                    """),
+            new HotQuery("monthly totals", "idx_expenses_user_month", """
+                    SELECT month, SUM(amount_minor)
+                    FROM expenses
+                    WHERE user_id = 1
+                    GROUP BY month
+                    """),
+            new HotQuery("category totals", "idx_expenses_user_category", """
+                    SELECT category_id, SUM(amount_minor)
+                    FROM expenses
+                    WHERE user_id = 1
+                    GROUP BY category_id
+                    """),
+            new HotQuery("delete all of a user's expenses", "idx_expenses_user_", """
+                    DELETE FROM expenses WHERE user_id = 1
+                    """));
+
+    @SafeVarargs
+    private static List<String> concat(List<String>... parts) {
+        List<String> all = new ArrayList<>();
+        for (List<String> part : parts)
+            all.addAll(part);
+        return all;
+    }
+
+    public static int latestVersion() {
+        return MIGRATIONS.get(MIGRATIONS.size() - 1).version();
+    }
+
+    public static int currentVersion(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+                ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * Applies every migration newer than the database's user_version.
+     *
+     * @param connection An open connection in auto-commit mode
+     * @return The schema version after migrating
+     * @throws SQLException If a migration fails; that migration is rolled back
+     */
+
+    public static int migrate(Connection connection) throws SQLException {
+        int version = currentVersion(connection);
+
+        for (Migration migration : MIGRATIONS) {
+            if (migration.version() <= version)
+                continue;
+
+            connection.setAutoCommit(false);
+            try (Statement stmt = connection.createStatement()) {
+                for (String sql : migration.statements()) {
+                    stmt.execute(sql);
+                }
+                if (migration.afterStatements() != null)
+                    migration.afterStatements().apply(connection);
+                // PRAGMA does not accept bound parameters
+                stmt.execute("PRAGMA user_version = " + migration.version());
+                connection.commit();
+                version = migration.version();
+                System.out.println("Applied migration " + version + ": " + migration.description());
+            } catch (SQLException e) {
+                connection.rollback();
+                throw new SQLException("Migration " + migration.version() + " failed: " + e.getMessage(), e);
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+
+        return version;
+    }
+
+    // Normalizes each distinct stored category once and points its rows at the id
+    private static void assignCategoryIds(Connection connection) throws SQLException {
+        List<String> rawCategories = new ArrayList<>();
+        try (Statement stmt = connection.createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT DISTINCT category FROM expenses")) {
+            while (rs.next()) {
+                rawCategories.add(rs.getString(1));
+            }
+        }
+
+        CategoryDictionary dictionary = new CategoryDictionary();
+        try (PreparedStatement update = connection.prepareStatement(
+                "UPDATE expenses SET category_id = ? WHERE category IS ?")) {
+            for (String raw : rawCategories) {
+                update.setInt(1, dictionary.getOrCreate(connection, CategoryNormalizer.shared().normalize(raw)));
+                update.setString(2, raw);
+                update.executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * Returns the detail column of EXPLAIN QUERY PLAN for a query.
+     */
+
+    public static List<String> explainQueryPlan(Connection connection, String sql) throws SQLException {
+        List<String> plan = new ArrayList<>();
+        try (Statement stmt = connection.createStatement();
+                ResultSet rs = stmt.executeQuery("EXPLAIN QUERY PLAN " + sql)) {
+            while (rs.next()) {
+                plan.add(rs.getString("detail"));
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Checks that every hot per-user query is planned as a search of its
+     * index rather than a scan of the expenses table. Problems are printed
+     * to stderr; {@link #main} turns them into a failing exit status.
+     *
+     * @return A map from query description to whether its plan is an index search
+     */
+
+    public static Map<String, Boolean> verifyIndexUsage(Connection connection) throws SQLException {
+        Map<String, Boolean> result = new LinkedHashMap<>();
+
+        for (HotQuery query : HOT_QUERIES) {
+            List<String> plan = explainQueryPlan(connection, query.sql());
+            boolean searched = plan.stream().anyMatch(detail -> detail.startsWith("SEARCH")
+                    && detail.contains(query.index()));
+            boolean scanned = plan.stream().anyMatch(detail -> detail.startsWith("SCAN expenses"));
+            boolean used = searched && !scanned;
+            result.put(query.description(), used);
+
+            if (!used)
+                System.err.println("Query \"" + query.description() + "\" does not search "
+                        + query.index() + ", plan: " + plan);
+        }
+
+        return result;
+    }
+
+    /**
+     * Migrates a database and checks the hot queries' plans, exiting with
+     * status 1 if any of them scans instead of using its index. Without a
+     * file argument a fresh temporary database is checked, which tests the
+     * migrations themselves.
+     *
+     * Run: mvn -q compile exec:java -Dexec.mainClass=com.expense.SchemaMigrator -Dexec.args="expenses.db"
+     */
+
+    public static void main(String[] args) throws Exception {
+        Path file = args.length > 0 ? Path.of(args[0])
+                : Files.createTempFile("expense-schema-", ".db");
+        int status;
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file)) {
+            System.out.println("Schema v" + migrate(connection) + " at " + file);
+            Map<String, Boolean> used = verifyIndexUsage(connection);
+            used.forEach((query, ok) -> System.out.println((ok ? "ok    " : "SCAN  ") + query));
+            status = used.containsValue(false) ? 1 : 0;
+        } finally {
+            if (args.length == 0)
+                Files.deleteIfExists(file);
+        }
+        System.exit(status);
+    }
+}
@@ -0,0 +1,156 @@
+package com.expense;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * A named set of SQLite PRAGMA settings applied when a connection opens.
+ *
+ * The profile is chosen by the {@code expense.db.profile} system property or
+ * the {@code profile} key of {@code sqlite.properties} in the working
+ * directory. Individual settings can be overridden the same way, e.g.
+ * {@code -Dexpense.db.cache_size=-131072} or {@code cache_size=-131072}.
+ */
+
+public class SqliteProfile {
+
+    public static final String CONFIG_FILE = "sqlite.properties";
+    public static final String PROPERTY_PREFIX = "expense.db.";
+
+    // Order matters: journal_mode must be switched before anything else runs
+    private static final List<String> SETTINGS = List.of(
+            "journal_mode", "synchronous", "mmap_size", "cache_size", "temp_store", "busy_timeout");
+
+    private static final Map<String, Map<String, String>> PROFILES = new LinkedHashMap<>();
+
+    static {
+        // WAL lets report reads run while inserts are in flight
+        Map<String, String> performance = new LinkedHashMap<>();
+        performance.put("journal_mode", "WAL");
+        performance.put("synchronous", "NORMAL");
+        performance.put("mmap_size", String.valueOf(256L * 1024 * 1024));
+        performance.put("cache_size", "-65536"); // negative = KiB, i.e. 64 MiB
+        performance.put("temp_store", "MEMORY");
+        performance.put("busy_timeout", "5000");
+        PROFILES.put("performance", performance);
+
+        // Same concurrency as "performance" but fsyncs on every commit
+        Map<String, String> durable = new LinkedHashMap<>(performance);
+        durable.put("synchronous", "FULL");
+        PROFILES.put("durable", durable);
+
+        // Driver defaults: rollback journal, full sync, small page cache. Readers block
+        // commits here, so DatabaseBackup falls back to a slower page-by-page copy
+        PROFILES.put("default", new LinkedHashMap<>());
+    }
+
+    private final String name;
+    private final Map<String, String> settings;
+
+    private SqliteProfile(String name, Map<String, String> settings) {
+        this.name = name;
+        this.settings = Collections.unmodifiableMap(settings);
+    }
+
+    public static SqliteProfile named(String name) {
+        Map<String, String> base = PROFILES.get(name);
+        if (base == null)
+            throw new IllegalArgumentException("Unknown SQLite profile: " + name + " (known: " + PROFILES.keySet() + ")");
+        return new SqliteProfile(name, new LinkedHashMap<>(base));
+    }
+
+    /**
+     * Resolves the profile from sqlite.properties and system properties.
+     * System properties win over the file; unknown keys are ignored.
+     */
+
+    public static SqliteProfile load() {
+        Properties file = new Properties();
+        Path path = Path.of(CONFIG_FILE);
+
+        if (Files.isRegularFile(path)) {
+            try (InputStream in = new FileInputStream(path.toFile())) {
+                file.load(in);
+            } catch (IOException e) {
+                System.err.println("Could not read " + CONFIG_FILE + ": " + e.getMessage());
+            }
+        }
+
+        String profileName = System.getProperty(PROPERTY_PREFIX + "profile",
+                file.getProperty("profile", "performance"));
+
+        SqliteProfile profile;
+        try {
+            profile = named(profileName);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage() + "; using \"performance\"");
+            profile = named("performance");
+        }
+
+        Map<String, String> merged = new LinkedHashMap<>(profile.settings);
+        for (String key : SETTINGS) {
+            String value = System.getProperty(PROPERTY_PREFIX + key, file.getProperty(key));
+            if (value != null && !value.isBlank())
+                merged.put(key, value.trim());
+        }
+
+        return new SqliteProfile(profile.name, merged);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Map<String, String> getSettings() {
+        return settings;
+    }
+
+    /**
+     * Runs the profile's PRAGMAs on a freshly opened connection.
+     */
+
+    public void apply(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            for (String key : SETTINGS) {
+                String value = settings.get(key);
+                if (value == null)
+                    continue;
+
+                if (!value.matches("[A-Za-z0-9_-]+"))
+                    throw new SQLException("Invalid value for " + key + ": " + value);
+
+                // PRAGMA does not accept bound parameters
+                stmt.execute("PRAGMA " + key + " = " + value);
+            }
+        }
+    }
+
+    /**
+     * Reads back the settings SQLite actually has in effect, which may differ
+     * from the requested ones (e.g. WAL is refused for in-memory databases).
+     */
+
+    public static Map<String, String> readActiveSettings(Connection connection) throws SQLException {
+        Map<String, String> active = new LinkedHashMap<>();
+
+        try (Statement stmt = connection.createStatement()) {
+            for (String key : SETTINGS) {
+                try (ResultSet rs = stmt.executeQuery("PRAGMA " + key)) {
+                    active.put(key, rs.next() ? rs.getString(1) : null);
+                }
+            }
+        }
+
+        return active;
+    }
+
+    @Override
+    public String toString() {
+        return name + " " + settings;
+    }
+}
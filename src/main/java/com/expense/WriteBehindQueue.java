@@ -0,0 +1,334 @@
+package com.expense;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Write-behind mode for high-frequency inserts and updates. Callers queue a
+ * write and get a future back; one flusher thread gathers queued writes and
+ * commits them together in a single transaction, once {@code maxRows} are
+ * waiting or {@code maxDelay} after the first of them, whichever is sooner.
+ * On SQLite the commit is most of the cost of a small write, so a group of
+ * hundreds costs about as much as one.
+ *
+ * A future completes only once its write is committed, so a caller that
+ * waits on it loses nothing to a crash; a caller that asks for a durable
+ * write also survives a power loss (see {@link DatabaseHandler#commitGroup}).
+ * Updates of the same expense within one group are coalesced into the last.
+ * If a group fails, its writes are retried one at a time, so only the
+ * futures of the write at fault fail. A user whose lock stays busy (a long
+ * read, a bulk insert) does not stall the group: that user's writes move to
+ * the front of the next group, still in order. The queue is bounded: when
+ * it is full, callers block until the flusher catches up. Closing commits
+ * everything still queued.
+ *
+ * Run: mvn -q compile exec:java -Dexec.mainClass=com.expense.WriteBehindQueue -Dexec.args="20000 64"
+ * (arguments: inserts, concurrent writers; compares direct and write-behind inserts)
+ */
+
+public class WriteBehindQueue implements AutoCloseable {
+
+    public static final int DEFAULT_CAPACITY = 10_000;
+    public static final int DEFAULT_MAX_ROWS = 1000;
+    public static final Duration DEFAULT_MAX_DELAY = Duration.ofMillis(10);
+
+    // A queued write, or with expense == null a flush marker that ends the current group
+    private record Pending(Expense expense, Expense original, int userId, boolean insert, boolean durable,
+            CompletableFuture<Boolean> done) {
+    }
+
+    private static final Pending STOP = new Pending(null, null, 0, false, false, null);
+
+    private final DatabaseHandler db;
+    private final BlockingQueue<Pending> queue;
+    private final int maxRows;
+    private final long maxDelayNanos;
+    // How long a group waits for a busy user before leaving that user's writes for the next
+    private final long lockWaitNanos;
+    private final Thread flusher;
+
+    // Held while enqueueing, so nothing can be queued behind STOP
+    private final ReentrantLock enqueueLock = new ReentrantLock();
+    private boolean closed;
+
+    private final LongAdder groups = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    public WriteBehindQueue(DatabaseHandler db) {
+        this(db, DEFAULT_CAPACITY, DEFAULT_MAX_ROWS, DEFAULT_MAX_DELAY);
+    }
+
+    /**
+     * @param db       Connected handler; the queue uses it but does not close it
+     * @param capacity Writes queued before callers block
+     * @param maxRows  Most writes committed in one transaction
+     * @param maxDelay Longest a write waits for others to join its group
+     */
+    public WriteBehindQueue(DatabaseHandler db, int capacity, int maxRows, Duration maxDelay) {
+        if (capacity < 1 || maxRows < 1 || maxDelay.isNegative())
+            throw new IllegalArgumentException("Capacity and group size must be positive, delay not negative");
+        this.db = db;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.maxRows = maxRows;
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.lockWaitNanos = Math.max(maxDelayNanos, TimeUnit.MILLISECONDS.toNanos(1));
+        this.flusher = new Thread(this::run, "write-behind");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Queues an insert. The expense is copied, so later changes to it are
+     * not written; its id is set just before the future completes.
+     */
+    public CompletableFuture<Expense> save(Expense e, int userId, boolean durable) {
+        return enqueue(e, userId, true, durable).thenApply(saved -> e);
+    }
+
+    /** Queues an update. The future tells whether the expense existed. */
+    public CompletableFuture<Boolean> update(Expense e, int userId, boolean durable) {
+        if (e.getId() == null)
+            throw new IllegalArgumentException("Only saved expenses can be updated");
+        return enqueue(e, userId, false, durable);
+    }
+
+    /** Completes once everything queued before the call is committed. */
+    public CompletableFuture<Void> flush() {
+        return enqueue(null, 0, false, false).thenApply(flushed -> null);
+    }
+
+    private CompletableFuture<Boolean> enqueue(Expense e, int userId, boolean insert, boolean durable) {
+        Expense copy = e == null ? null
+                : new Expense(e.getId(), e.getDate(), e.getName(), e.getAmountMinor(), e.getCategory(),
+                        e.getDescription());
+        Pending pending = new Pending(copy, e, userId, insert, durable, new CompletableFuture<>());
+
+        enqueueLock.lock();
+        try {
+            if (closed)
+                return CompletableFuture.failedFuture(new IllegalStateException("Write-behind queue is closed"));
+            queue.put(pending);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(ex);
+        } finally {
+            enqueueLock.unlock();
+        }
+        return pending.done();
+    }
+
+    private void run() {
+        // Writes left over from one group start the next, ahead of anything newer
+        List<Pending> group = new ArrayList<>(maxRows);
+        boolean stopping = false;
+        while (!stopping || !group.isEmpty()) {
+            try {
+                if (group.isEmpty()) {
+                    Pending first = queue.take();
+                    if (first == STOP)
+                        break;
+                    group.add(first);
+                }
+
+                // Gather more until the group is full, the delay is up or a flush asks to end it
+                long deadline = System.nanoTime() + maxDelayNanos;
+                Pending next = group.get(group.size() - 1);
+                while (!stopping && next.expense() != null && group.size() < maxRows) {
+                    long wait = deadline - System.nanoTime();
+                    next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null)
+                        break;
+                    if (next == STOP) {
+                        stopping = true;
+                        break;
+                    }
+                    group.add(next);
+                }
+            } catch (InterruptedException ex) {
+                // Only close() stops the flusher; commit what was gathered and go on
+            }
+            group = commit(group);
+        }
+    }
+
+    // Commits the group; returns what has to wait for the next one, the writes of busy users and any flush behind them
+    private List<Pending> commit(List<Pending> group) {
+        // One write per insert and per updated expense; later updates replace earlier ones in place
+        List<DatabaseHandler.GroupWrite> writes = new ArrayList<>(group.size());
+        List<List<Pending>> waiters = new ArrayList<>(group.size());
+        Map<Long, Integer> updateSlots = new HashMap<>();
+        List<Pending> flushes = new ArrayList<>();
+        boolean durable = false;
+
+        for (Pending p : group) {
+            if (p.expense() == null) {
+                flushes.add(p);
+                continue;
+            }
+            durable |= p.durable();
+            DatabaseHandler.GroupWrite write = new DatabaseHandler.GroupWrite(p.expense(), p.userId(), p.insert());
+            Integer slot = p.insert() ? null
+                    : updateSlots.putIfAbsent(((long) p.userId() << 32) | (p.expense().getId() & 0xffffffffL),
+                            writes.size());
+            if (slot == null) {
+                writes.add(write);
+                waiters.add(new ArrayList<>(List.of(p)));
+            } else {
+                writes.set(slot, write);
+                waiters.get(slot).add(p);
+            }
+        }
+
+        List<Pending> deferred = new ArrayList<>();
+        if (!writes.isEmpty()) {
+            try {
+                settle(writes, waiters, db.commitGroup(writes, durable, lockWaitNanos), deferred);
+            } catch (SQLException | RuntimeException ex) {
+                if (writes.size() == 1) {
+                    fail(waiters.get(0), ex);
+                } else {
+                    // Find the write at fault by committing each on its own
+                    System.err.println("Group commit of " + writes.size() + " writes failed, retrying one by one: "
+                            + ex.getMessage());
+                    // Once a user's write is left out, so are that user's later ones, to keep them in order
+                    Set<Integer> busyUsers = new HashSet<>();
+                    for (int i = 0; i < writes.size(); i++) {
+                        List<Pending> slot = waiters.get(i);
+                        if (busyUsers.contains(writes.get(i).userId())) {
+                            deferred.addAll(slot);
+                            continue;
+                        }
+                        int before = deferred.size();
+                        try {
+                            settle(List.of(writes.get(i)), List.of(slot), db.commitGroup(List.of(writes.get(i)),
+                                    slot.stream().anyMatch(Pending::durable), lockWaitNanos), deferred);
+                            if (deferred.size() > before)
+                                busyUsers.add(writes.get(i).userId());
+                        } catch (SQLException | RuntimeException single) {
+                            fail(slot, single);
+                        }
+                    }
+                }
+            }
+        }
+
+        // Everything queued before a flush marker is in this group or an earlier one, unless it was deferred
+        if (deferred.isEmpty())
+            flushes.forEach(p -> p.done().complete(true));
+        else
+            deferred.addAll(flushes);
+        return deferred;
+    }
+
+    // Completes the futures of committed writes and collects the ones left out of the group
+    private void settle(List<DatabaseHandler.GroupWrite> writes, List<List<Pending>> waiters, Boolean[] changed,
+            List<Pending> deferred) {
+        boolean committed = false;
+        for (int i = 0; i < changed.length; i++) {
+            if (changed[i] == null) {
+                deferred.addAll(waiters.get(i));
+                continue;
+            }
+            committed = true;
+            rows.increment();
+            coalesced.add(waiters.get(i).size() - 1);
+            for (Pending p : waiters.get(i)) {
+                if (p.insert())
+                    p.original().setId(writes.get(i).expense().getId());
+                p.done().complete(changed[i]);
+            }
+        }
+        if (committed)
+            groups.increment();
+    }
+
+    private static void fail(List<Pending> slot, Exception ex) {
+        System.err.println("Write-behind write failed: " + ex.getMessage());
+        slot.forEach(p -> p.done().completeExceptionally(ex));
+    }
+
+    public long getGroupCount() {
+        return groups.sum();
+    }
+
+    public long getRowCount() {
+        return rows.sum();
+    }
+
+    /** Updates folded into a later update of the same expense. */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    /** Stops taking writes and returns once everything already queued is committed. */
+    @Override
+    public void close() {
+        enqueueLock.lock();
+        try {
+            if (closed)
+                return;
+            closed = true;
+            queue.put(STOP);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            enqueueLock.unlock();
+        }
+
+        try {
+            flusher.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int inserts = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int writers = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+
+        Path file = Files.createTempFile("expense-write-behind-", ".db");
+        try (DatabaseHandler db = new DatabaseHandler(SqliteProfile.load(), file)) {
+            db.connect();
+            User user = new User(null, "bench", "secret");
+            db.register(user);
+            int userId = db.login(user);
+
+            time("direct, one commit each", inserts, writers, e -> db.saveExpense(e, userId));
+            try (WriteBehindQueue writes = new WriteBehindQueue(db)) {
+                time("write-behind", inserts, writers, e -> writes.save(e, userId, false).join());
+                System.out.printf("  %,d rows in %,d groups (%.0f per commit)%n", writes.getRowCount(),
+                        writes.getGroupCount(), (double) writes.getRowCount() / Math.max(1, writes.getGroupCount()));
+            }
+        } finally {
+            for (String suffix : List.of("", "-wal", "-shm"))
+                Files.deleteIfExists(Path.of(file + suffix));
+        }
+    }
+
+    // Each writer waits for its own insert to commit before sending the next
+    private static void time(String label, int inserts, int writers, Consumer<Expense> save) {
+        long start = System.nanoTime();
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int w = 0; w < writers; w++) {
+                int share = inserts / writers + (w < inserts % writers ? 1 : 0);
+                pool.execute(() -> {
+                    for (int i = 0; i < share; i++)
+                        save.accept(new Expense(null, LocalDate.of(2024, 1, 1).plusDays(i % 366).toString(),
+                                "coffee", 350L, "Food", ""));
+                });
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-26s %,d inserts in %.2f s (%,.0f/s)%n", label, inserts, seconds, inserts / seconds);
+    }
+}